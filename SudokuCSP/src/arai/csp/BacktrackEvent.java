@@ -0,0 +1,62 @@
+package arai.csp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for a subtree of the search of a CSPSolver that
+ * failed after more than the threshold: none of the values of the variable
+ * decided at its root led to a solution, or a backjump skipped the rest of
+ * them (see CSPSolver.setBackjumping()). Subtrees inside a failed
+ * subtree that also take longer are recorded as well, so the events of one
+ * episode nest from the level where it began down to the deepest one.
+ */
+@Name("arai.csp.Backtrack")
+@Label("Sudoku Backtrack")
+@Category("Sudoku")
+@Description("A subtree of the search that failed after a long time")
+@StackTrace(false)
+@Threshold("10 ms")
+public final class BacktrackEvent extends jdk.jfr.Event {
+
+	// Checked before an event is created, so a disabled event costs nothing
+	static final EventType TYPE = EventType.getEventType(BacktrackEvent.class);
+
+	@Label("Depth")
+	@Description("The number of values assigned by the search above the subtree")
+	int depth;
+
+	@Label("Variable")
+	@Description("The variable decided at the root of the subtree (0-80)")
+	int variable;
+
+	@Label("Nodes")
+	@Description("The search nodes in the subtree, if the solver counts them")
+	long nodes;
+
+	@Label("Backjump")
+	@Description("True if the subtree was left by a jump to a shallower level")
+	boolean backjump;
+
+	/**
+	 * Record the failed subtree, if it took longer than the threshold.
+	 *
+	 * @param nodes
+	 *            The search nodes in the subtree.
+	 */
+	void complete(int depth, int variable, long nodes, boolean backjump) {
+		end();
+		if (!shouldCommit())
+			return;
+		this.depth = depth;
+		this.variable = variable;
+		this.nodes = nodes;
+		this.backjump = backjump;
+		commit();
+	}
+}
@@ -0,0 +1,506 @@
+package arai.csp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Solves a whole batch of puzzles in parallel on a fork/join pool.
+ * 
+ * The batch is split into ranges that idle workers can steal from each other.
+ * Every worker thread gets its own solver from the factory, so solver state
+ * is never shared between threads. The solutions are stored by position, so
+ * they come back in input order.
+ * 
+ * A puzzle file can also be solved straight from disk: it is split into byte
+ * ranges that are streamed by a MappedPuzzleReader each, so the puzzles are
+ * never all held in memory as Strings. The same way, the solutions of every
+ * puzzle in a file can be counted up to a limit, e.g. to check that each
+ * puzzle has exactly one.
+ * 
+ * With setLockstep(), puzzles are solved in blocks by a LockstepSolver per
+ * worker, which passes the puzzles that propagation does not solve on to the
+ * worker's solver.
+ * 
+ * With setWriter(), the outcome of every puzzle is written to a file as soon
+ * as the puzzles before it are done, in input order (see SolutionWriter).
+ * The solutions are then not kept in memory at all.
+ */
+public class BatchSolver {
+
+	// Ranges of at most this many puzzles are solved without splitting further
+	public static final int SPLIT_THRESHOLD = 16;
+
+	// The number of byte ranges per worker a puzzle file is split into
+	public static final int RANGES_PER_WORKER = 4;
+
+	private final ForkJoinPool pool;
+
+	// One solver per worker thread
+	private final SharedSolver solvers;
+
+	// Solve in blocks of puzzles propagated in lockstep (see setLockstep()),
+	// with one lockstep solver per worker thread
+	private boolean lockstep = false;
+	private final ThreadLocal<LockstepSolver> lockstepSolvers = new ThreadLocal<LockstepSolver>() {
+		@Override
+		protected LockstepSolver initialValue() {
+			return new LockstepSolver(solvers.local());
+		}
+	};
+
+	// Collects the search statistics of every puzzle, or null
+	private StatsHistogram histogram = null;
+
+	// Writes the outcome of every puzzle, or null
+	private SolutionWriter writer = null;
+
+	private long elapsedNanos = 0;
+	private int solvedCount = 0;
+	private int puzzleCount = 0;
+
+	// Puzzles of the last batch whose solver ran out of budget
+	private final AtomicInteger exceededCount = new AtomicInteger();
+
+	// Puzzles of the last list of puzzles that were solved (see solveAll())
+	private final AtomicInteger solvedInRanges = new AtomicInteger();
+
+	/**
+	 * @param factory
+	 *            Creates the solver for each worker thread.
+	 * @param workers
+	 *            The number of worker threads.
+	 */
+	public BatchSolver(SolverFactory factory, int workers) {
+		pool = new ForkJoinPool(workers);
+		solvers = new SharedSolver(factory);
+	}
+
+	/**
+	 * Record the search statistics of every solved puzzle in the histogram,
+	 * with the position of the puzzle in the batch. Solvers that don't count
+	 * their work are skipped.
+	 * 
+	 * @param histogram
+	 *            The histogram to record to, or null to stop recording.
+	 */
+	public void setHistogram(StatsHistogram histogram) {
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Write the outcome of every puzzle that is solved to the writer, in the
+	 * order of the puzzles. A writer takes one batch; counting solutions
+	 * writes nothing.
+	 * 
+	 * @param writer
+	 *            The writer, or null to stop writing.
+	 */
+	public void setWriter(SolutionWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Solve the puzzles in blocks of LockstepSolver.LANES, propagated in
+	 * lockstep, or one by one with the solvers of the factory (the default).
+	 * Counting solutions is always done one by one.
+	 */
+	public void setLockstep(boolean lockstep) {
+		this.lockstep = lockstep;
+	}
+
+	/**
+	 * Solve all puzzles.
+	 * 
+	 * @param puzzles
+	 *            The Sudoku puzzles to be solved.
+	 * @return The solution for each puzzle (see SudokuSolver.getSolution()),
+	 *         in the same order as the puzzles; null if a writer is set,
+	 *         which gets the solutions instead (see getSolvedCount()).
+	 */
+	public String[] solveAll(List<String> puzzles) {
+		String[] solutions = writer == null ? new String[puzzles.size()]
+				: null;
+
+		exceededCount.set(0);
+		solvedInRanges.set(0);
+		long start = System.nanoTime();
+		pool.invoke(new SolveRange(puzzles, solutions, 0, puzzles.size()));
+		elapsedNanos = System.nanoTime() - start;
+
+		puzzleCount = puzzles.size();
+		solvedCount = solvedInRanges.get();
+		return solutions;
+	}
+
+	/**
+	 * Solve all puzzles in a file, streaming them from byte ranges of the
+	 * file in parallel.
+	 * 
+	 * @param fileName
+	 *            A file with one puzzle per line (see SudokuReader).
+	 * @return The solution for each puzzle (see SudokuSolver.getSolution()),
+	 *         in the same order as the puzzles in the file; null if a writer
+	 *         is set, which gets the solutions instead (see getPuzzleCount()
+	 *         and getSolvedCount()).
+	 */
+	public List<String> solveFile(String fileName) throws IOException {
+		List<SolveFileRange> ranges = solveRanges(fileName, 0);
+
+		List<String> solutions = writer == null ? new ArrayList<String>()
+				: null;
+		puzzleCount = 0;
+		solvedCount = 0;
+		for (SolveFileRange range : ranges) {
+			if (range.failure != null)
+				throw range.failure;
+			if (solutions != null)
+				solutions.addAll(range.solutions);
+			puzzleCount += range.countSize;
+			solvedCount += range.solvedCount;
+		}
+		return solutions;
+	}
+
+	/**
+	 * Count the solutions of all puzzles in a file, streaming them from byte
+	 * ranges of the file in parallel (see SudokuSolver.countSolutions()). A
+	 * puzzle counts as solved if it has at least one solution.
+	 * 
+	 * @param fileName
+	 *            A file with one puzzle per line (see SudokuReader).
+	 * @param limit
+	 *            The number of solutions after which to stop counting, e.g. 2
+	 *            to check that every puzzle has exactly one.
+	 * @return The number of solutions of each puzzle, at most the limit, in
+	 *         the same order as the puzzles in the file.
+	 */
+	public int[] countFile(String fileName, int limit) throws IOException {
+		List<SolveFileRange> ranges = solveRanges(fileName, Math.max(1, limit));
+
+		puzzleCount = 0;
+		for (SolveFileRange range : ranges) {
+			if (range.failure != null)
+				throw range.failure;
+			puzzleCount += range.countSize;
+		}
+
+		int[] counts = new int[puzzleCount];
+		int position = 0;
+		for (SolveFileRange range : ranges) {
+			System.arraycopy(range.counts, 0, counts, position,
+					range.countSize);
+			position += range.countSize;
+		}
+
+		solvedCount = 0;
+		for (int count : counts)
+			if (count > 0)
+				solvedCount++;
+
+		return counts;
+	}
+
+	/**
+	 * Split the file into byte ranges and solve them (limit 0) or count their
+	 * solutions in the pool.
+	 */
+	private List<SolveFileRange> solveRanges(String fileName, int limit)
+			throws IOException {
+		long[] boundaries = MappedPuzzleReader.split(fileName, getWorkers()
+				* RANGES_PER_WORKER);
+		List<SolveFileRange> ranges = new ArrayList<SolveFileRange>();
+		for (int i = 0; i + 1 < boundaries.length; i++)
+			ranges.add(new SolveFileRange(fileName, boundaries[i],
+					boundaries[i + 1], limit));
+
+		exceededCount.set(0);
+		long start = System.nanoTime();
+		pool.invoke(new SolveFile(ranges));
+		elapsedNanos = System.nanoTime() - start;
+		return ranges;
+	}
+
+	/**
+	 * The wall-clock time the last batch took.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * The number of puzzles in the last batch.
+	 */
+	public int getPuzzleCount() {
+		return puzzleCount;
+	}
+
+	/**
+	 * The number of puzzles in the last batch that were solved.
+	 */
+	public int getSolvedCount() {
+		return solvedCount;
+	}
+
+	/**
+	 * The number of puzzles in the last batch that were given up because
+	 * their solver ran out of budget (see SudokuSolver.setBudget()).
+	 */
+	public int getBudgetExceededCount() {
+		return exceededCount.get();
+	}
+
+	/**
+	 * The overall throughput of the last batch.
+	 */
+	public double getPuzzlesPerSecond() {
+		if (elapsedNanos == 0)
+			return 0;
+		return puzzleCount * 1e9 / elapsedNanos;
+	}
+
+	public int getWorkers() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stop the worker threads. The batch solver can't be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Count a lane of a block that ran out of budget and record its
+	 * statistics.
+	 */
+	private void record(LockstepSolver solver, int lane, long puzzle) {
+		if (solver.getStatus(lane) == SudokuSolver.BUDGET_EXCEEDED)
+			exceededCount.incrementAndGet();
+		if (histogram != null && solver.getStats(lane) != null)
+			histogram.record(puzzle, solver.getStats(lane));
+	}
+
+	/**
+	 * Solves the puzzles from start (inclusive) to end (exclusive), splitting
+	 * the range in two while it is larger than SPLIT_THRESHOLD.
+	 */
+	private class SolveRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> puzzles;
+		// Null if the solutions go to the writer
+		private final String[] solutions;
+		private final int start;
+		private final int end;
+
+		SolveRange(List<String> puzzles, String[] solutions, int start, int end) {
+			this.puzzles = puzzles;
+			this.solutions = solutions;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			// With lockstep, keep a range at least one block wide
+			int threshold = lockstep ? Math.max(SPLIT_THRESHOLD,
+					LockstepSolver.LANES) : SPLIT_THRESHOLD;
+			if (end - start > threshold) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new SolveRange(puzzles, solutions, start, middle),
+						new SolveRange(puzzles, solutions, middle, end));
+				return;
+			}
+
+			if (lockstep) {
+				solveBlocks();
+				return;
+			}
+
+			SudokuSolver solver = solvers.local();
+			for (int i = start; i < end; i++) {
+				String solution = null;
+				if (solver.solve(puzzles.get(i)))
+					solution = solver.getSolution();
+				else if (solver.getStatus() == SudokuSolver.BUDGET_EXCEEDED)
+					exceededCount.incrementAndGet();
+				if (histogram != null && solver.getStats() != null)
+					histogram.record(i, solver.getStats());
+				add(i, solution, solver.getStatus());
+			}
+			if (writer != null && end > start)
+				writer.endRange(start, end);
+		}
+
+		private void solveBlocks() {
+			LockstepSolver solver = lockstepSolvers.get();
+			for (int first = start; first < end; first += LockstepSolver.LANES) {
+				int count = Math.min(LockstepSolver.LANES, end - first);
+				for (int lane = 0; lane < count; lane++)
+					solver.load(lane, puzzles.get(first + lane));
+				solver.solve(count);
+				for (int lane = 0; lane < count; lane++) {
+					record(solver, lane, first + lane);
+					add(first + lane, solver.getSolution(lane),
+							solver.getStatus(lane));
+				}
+			}
+			if (writer != null && end > start)
+				writer.endRange(start, end);
+		}
+
+		/**
+		 * Keep or write the outcome of a puzzle.
+		 */
+		private void add(int puzzle, String solution, int status) {
+			if (solution != null)
+				solvedInRanges.incrementAndGet();
+			if (writer != null)
+				writer.write(start, solution, status);
+			else
+				solutions[puzzle] = solution;
+		}
+	}
+
+	/**
+	 * Runs the tasks for all byte ranges of a file from inside the pool.
+	 */
+	private class SolveFile extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<SolveFileRange> ranges;
+
+		SolveFile(List<SolveFileRange> ranges) {
+			this.ranges = ranges;
+		}
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(ranges);
+		}
+	}
+
+	/**
+	 * Streams and solves the puzzles of one byte range of a file, or counts
+	 * their solutions if a limit is given. Puzzles are recorded in the
+	 * histogram by their byte offset.
+	 */
+	private class SolveFileRange extends RecursiveTask<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String fileName;
+		private final long start;
+		private final long end;
+
+		// The solution limit when counting, or 0 to solve
+		private final int limit;
+
+		// The solutions, or null if they go to the writer; the counts of
+		// solutions when counting
+		private final List<String> solutions = writer == null ? new ArrayList<String>()
+				: null;
+		private int[] counts = new int[SPLIT_THRESHOLD];
+
+		// The puzzles of the range, and those that were solved
+		private int countSize = 0;
+		private int solvedCount = 0;
+		private IOException failure = null;
+
+		SolveFileRange(String fileName, long start, long end, int limit) {
+			this.fileName = fileName;
+			this.start = start;
+			this.end = end;
+			this.limit = limit;
+		}
+
+		@Override
+		protected Void compute() {
+			SudokuSolver solver = solvers.local();
+			try {
+				MappedPuzzleReader reader = new MappedPuzzleReader(fileName,
+						start, end);
+				try {
+					if (lockstep && limit == 0) {
+						solveBlocks(reader);
+						return null;
+					}
+					while (reader.next()) {
+						if (limit > 0) {
+							addCount(solver.countSolutions(reader.puzzle(),
+									limit));
+						} else {
+							String solution = solver.solve(reader.puzzle()) ? solver
+									.getSolution() : null;
+							addSolution(solution);
+							if (writer != null)
+								writer.write(start, solution,
+										solver.getStatus());
+						}
+						if (solver.getStatus() == SudokuSolver.BUDGET_EXCEEDED)
+							exceededCount.incrementAndGet();
+						if (histogram != null && solver.getStats() != null)
+							histogram.record(reader.offset(),
+									solver.getStats());
+					}
+				} finally {
+					reader.close();
+					if (writer != null && limit == 0 && end > start)
+						writer.endRange(start, end);
+				}
+			} catch (IOException ioe) {
+				failure = ioe;
+			}
+			return null;
+		}
+
+		/**
+		 * Solve the puzzles of the range in blocks propagated in lockstep.
+		 */
+		private void solveBlocks(MappedPuzzleReader reader) throws IOException {
+			LockstepSolver solver = lockstepSolvers.get();
+			long[] offsets = new long[LockstepSolver.LANES];
+			boolean more = true;
+			while (more) {
+				int count = 0;
+				while (count < LockstepSolver.LANES && (more = reader.next())) {
+					solver.load(count, reader.puzzle());
+					offsets[count++] = reader.offset();
+				}
+				if (count == 0)
+					break;
+				solver.solve(count);
+				for (int lane = 0; lane < count; lane++) {
+					addSolution(solver.getSolution(lane));
+					record(solver, lane, offsets[lane]);
+					if (writer != null)
+						writer.write(start, solver.getSolution(lane),
+								solver.getStatus(lane));
+				}
+			}
+		}
+
+		private void addCount(int count) {
+			if (countSize == counts.length)
+				counts = Arrays.copyOf(counts, 2 * counts.length);
+			counts[countSize++] = count;
+		}
+
+		private void addSolution(String solution) {
+			if (solutions != null)
+				solutions.add(solution);
+			countSize++;
+			if (solution != null)
+				solvedCount++;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package arai.csp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The packed binary format for puzzles and their solutions.
+ * 
+ * A file starts with a header of HEADER_SIZE bytes: the magic bytes "SDKB",
+ * the format version, a flags byte, two reserved bytes and the number of
+ * records as a long (big-endian). It is followed by fixed-size records, one
+ * per puzzle. A record holds the puzzle in PUZZLE_SIZE bytes, 4 bits per box
+ * in row order (the high nibble first, 0 for an unassigned box, 1-9 for a
+ * value), and if the SOLUTIONS flag is set, its solution in another
+ * PUZZLE_SIZE bytes. A solution of all zeros means the puzzle has none.
+ * 
+ * Because records have a fixed size, record i can be read at HEADER_SIZE + i
+ * * recordSize() without parsing anything before it.
+ */
+public final class BinaryPuzzleFormat {
+
+	public static final byte[] MAGIC = { 'S', 'D', 'K', 'B' };
+	public static final byte VERSION = 1;
+
+	// Flags
+	public static final byte SOLUTIONS = 1;
+
+	public static final int HEADER_SIZE = 16;
+
+	// Offset of the record count in the header
+	public static final int COUNT_OFFSET = 8;
+
+	public static final int PUZZLE_SIZE = (CSPSolver.NUMBER_OF_BOXES + 1) / 2;
+
+	private BinaryPuzzleFormat() {
+	}
+
+	/**
+	 * The size of a record in a file with the given flags.
+	 */
+	public static int recordSize(byte flags) {
+		return (flags & SOLUTIONS) != 0 ? 2 * PUZZLE_SIZE : PUZZLE_SIZE;
+	}
+
+	/**
+	 * Put a header at the current position of the buffer.
+	 */
+	public static void writeHeader(ByteBuffer buffer, byte flags, long count) {
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.put(flags);
+		buffer.put((byte) 0);
+		buffer.put((byte) 0);
+		buffer.putLong(count);
+	}
+
+	/**
+	 * Check the header at the start of the buffer and return its flags.
+	 */
+	public static byte readFlags(ByteBuffer buffer) throws IOException {
+		for (int i = 0; i < MAGIC.length; i++)
+			if (buffer.get(i) != MAGIC[i])
+				throw new IOException("Not a binary puzzle file");
+		if (buffer.get(MAGIC.length) != VERSION)
+			throw new IOException("Unsupported binary puzzle version: "
+					+ buffer.get(MAGIC.length));
+		return buffer.get(MAGIC.length + 1);
+	}
+
+	public static long readCount(ByteBuffer buffer) {
+		return buffer.getLong(COUNT_OFFSET);
+	}
+
+	/**
+	 * Pack a puzzle (or solution) at the current position of the buffer.
+	 * Characters other than '1' to '9' are stored as unassigned. Null packs
+	 * an empty grid, e.g. for an unsolved puzzle.
+	 */
+	public static void encode(CharSequence puzzle, ByteBuffer buffer) {
+		for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES; box += 2) {
+			int high = puzzle == null ? 0 : nibble(puzzle.charAt(box));
+			int low = puzzle == null || box + 1 >= CSPSolver.NUMBER_OF_BOXES ? 0
+					: nibble(puzzle.charAt(box + 1));
+			buffer.put((byte) (high << 4 | low));
+		}
+	}
+
+	/**
+	 * Unpack the puzzle (or solution) at the given position of the buffer
+	 * into the puzzle buffer, with a point ('.') for unassigned boxes.
+	 * 
+	 * @return False if all boxes are unassigned (e.g. an unsolved puzzle).
+	 */
+	public static boolean decode(ByteBuffer buffer, int position,
+			PuzzleBuffer puzzle) {
+		byte[] cells = puzzle.bytes();
+		boolean assigned = false;
+		for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES; box++) {
+			int packed = buffer.get(position + box / 2);
+			int value = (box & 1) == 0 ? (packed >> 4) & 0xF : packed & 0xF;
+			cells[box] = value == 0 ? (byte) '.' : (byte) ('0' + value);
+			assigned |= value != 0;
+		}
+		return assigned;
+	}
+
+	private static int nibble(char c) {
+		return c >= '1' && c <= '9' ? c - '0' : 0;
+	}
+}
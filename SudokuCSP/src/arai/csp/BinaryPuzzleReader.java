@@ -0,0 +1,139 @@
+package arai.csp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads puzzles (and their solutions, if stored) from the binary format (see
+ * BinaryPuzzleFormat) by record number, straight from mapped memory.
+ * 
+ * Files are mapped in windows that hold a whole number of records, so a
+ * record never spans two windows and files of any size can be read. A reader
+ * can also be created on a ByteBuffer that holds a complete file.
+ */
+public class BinaryPuzzleReader implements Closeable {
+
+	// The largest part of the file that is mapped at once
+	public static final int WINDOW_SIZE = 1 << 26;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	private final byte flags;
+	private final long count;
+	private final int recordSize;
+	private final int recordsPerWindow;
+
+	private ByteBuffer window;
+
+	// The first record in the current window
+	private long windowFirst;
+
+	// The record returned by the next call to next()
+	private long nextRecord = 0;
+
+	public BinaryPuzzleReader(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(BinaryPuzzleFormat.HEADER_SIZE);
+		while (header.hasRemaining())
+			if (channel.read(header, header.position()) < 0)
+				throw new IOException("Not a binary puzzle file");
+		flags = BinaryPuzzleFormat.readFlags(header);
+		count = BinaryPuzzleFormat.readCount(header);
+		recordSize = BinaryPuzzleFormat.recordSize(flags);
+		recordsPerWindow = WINDOW_SIZE / recordSize;
+		window = null;
+		windowFirst = -1;
+	}
+
+	/**
+	 * Read from a buffer holding a complete file (header and records) from
+	 * its position on. The buffer itself is not changed.
+	 */
+	public BinaryPuzzleReader(ByteBuffer buffer) throws IOException {
+		file = null;
+		channel = null;
+		// A view that starts at the header, with a position of its own
+		ByteBuffer content = buffer.slice();
+		flags = BinaryPuzzleFormat.readFlags(content);
+		count = BinaryPuzzleFormat.readCount(content);
+		recordSize = BinaryPuzzleFormat.recordSize(flags);
+		recordsPerWindow = Integer.MAX_VALUE;
+		content.position(BinaryPuzzleFormat.HEADER_SIZE);
+		window = content.slice();
+		windowFirst = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean hasSolutions() {
+		return (flags & BinaryPuzzleFormat.SOLUTIONS) != 0;
+	}
+
+	/**
+	 * Unpack a puzzle into the buffer.
+	 * 
+	 * @param record
+	 *            The number of the puzzle (0 to getCount() - 1).
+	 */
+	public void getPuzzle(long record, PuzzleBuffer puzzle) throws IOException {
+		BinaryPuzzleFormat.decode(window(record), offset(record), puzzle);
+	}
+
+	/**
+	 * Unpack the solution of a puzzle into the buffer.
+	 * 
+	 * @return False if the puzzle has no solution.
+	 */
+	public boolean getSolution(long record, PuzzleBuffer solution)
+			throws IOException {
+		if (!hasSolutions())
+			throw new IllegalStateException("This file has no solutions");
+		return BinaryPuzzleFormat.decode(window(record), offset(record)
+				+ BinaryPuzzleFormat.PUZZLE_SIZE, solution);
+	}
+
+	/**
+	 * Unpack the next puzzle in order into the buffer.
+	 * 
+	 * @return False if all puzzles have been read.
+	 */
+	public boolean next(PuzzleBuffer puzzle) throws IOException {
+		if (nextRecord >= count)
+			return false;
+		getPuzzle(nextRecord++, puzzle);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		if (file != null)
+			file.close();
+	}
+
+	private int offset(long record) {
+		return (int) (record - windowFirst) * recordSize;
+	}
+
+	private ByteBuffer window(long record) throws IOException {
+		if (record < 0 || record >= count)
+			throw new IndexOutOfBoundsException("Record " + record + " of "
+					+ count);
+		if (windowFirst < 0 || record < windowFirst
+				|| record >= windowFirst + recordsPerWindow) {
+			windowFirst = record - record % recordsPerWindow;
+			long records = Math.min(recordsPerWindow, count - windowFirst);
+			window = channel.map(FileChannel.MapMode.READ_ONLY,
+					BinaryPuzzleFormat.HEADER_SIZE + windowFirst * recordSize,
+					records * recordSize);
+		}
+		return window;
+	}
+}
@@ -0,0 +1,95 @@
+package arai.csp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes puzzles (and optionally their solutions) in the binary format (see
+ * BinaryPuzzleFormat) through a reused buffer and a FileChannel.
+ * 
+ * The record count in the header is filled in when the writer is closed.
+ */
+public class BinaryPuzzleWriter implements Closeable {
+
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte flags;
+	private long count = 0;
+
+	/**
+	 * @param withSolutions
+	 *            True to store a solution with every puzzle.
+	 */
+	public BinaryPuzzleWriter(String fileName, boolean withSolutions)
+			throws IOException {
+		file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		flags = withSolutions ? BinaryPuzzleFormat.SOLUTIONS : 0;
+		BinaryPuzzleFormat.writeHeader(buffer, flags, 0);
+	}
+
+	/**
+	 * Add a puzzle to a file without solutions.
+	 */
+	public void write(CharSequence puzzle) throws IOException {
+		if ((flags & BinaryPuzzleFormat.SOLUTIONS) != 0)
+			throw new IllegalStateException("This file needs a solution with every puzzle");
+		ensureSpace();
+		BinaryPuzzleFormat.encode(puzzle, buffer);
+		count++;
+	}
+
+	/**
+	 * Add a puzzle and its solution to a file with solutions.
+	 * 
+	 * @param solution
+	 *            The solution, or null if the puzzle has none.
+	 */
+	public void write(CharSequence puzzle, CharSequence solution)
+			throws IOException {
+		if ((flags & BinaryPuzzleFormat.SOLUTIONS) == 0)
+			throw new IllegalStateException("This file has no solutions");
+		ensureSpace();
+		BinaryPuzzleFormat.encode(puzzle, buffer);
+		BinaryPuzzleFormat.encode(solution, buffer);
+		count++;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Write the buffered records and the final record count.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			ByteBuffer countBuffer = ByteBuffer.allocate(8);
+			countBuffer.putLong(0, count);
+			channel.write(countBuffer, BinaryPuzzleFormat.COUNT_OFFSET);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void ensureSpace() throws IOException {
+		if (buffer.remaining() < BinaryPuzzleFormat.recordSize(flags))
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
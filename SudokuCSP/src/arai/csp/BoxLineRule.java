@@ -0,0 +1,65 @@
+package arai.csp;
+
+/**
+ * If all variables of a row (or column) that can hold a value lie in the same
+ * region, the value must go in that part of the region and can be removed
+ * from the rest of the region (box/line reduction).
+ */
+public class BoxLineRule extends InferenceRule {
+
+	public BoxLineRule() {
+		super(InferenceRules.BOX_LINE);
+	}
+
+	@Override
+	public int apply(DomainStore variables, int[][][] units) {
+		int fired = 0;
+		for (int type = CSPSolver.ROW; type <= CSPSolver.COLUMN; type++) {
+			for (int[] line : units[type]) {
+				for (int value = 1; value <= Domains.NUMBER_OF_VALUES; value++) {
+					int bit = Domains.bit(value);
+					int regions = 0;
+					int count = 0;
+					for (int index : line) {
+						if ((variables.get(index) & bit) == 0)
+							continue;
+						regions |= 1 << region(index);
+						count++;
+					}
+					if (count < 2 || Integer.bitCount(regions) != 1)
+						continue;
+
+					int result = removeOutside(variables, units[CSPSolver.REGION][Integer
+							.numberOfTrailingZeros(regions)], type, line[0], bit);
+					if (result == CONTRADICTION)
+						return CONTRADICTION;
+					fired += result;
+				}
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * Remove the value from all variables of the region outside the line.
+	 * 
+	 * @param type
+	 *            ROW or COLUMN.
+	 * @param lineIndex
+	 *            Any variable of the line.
+	 */
+	private int removeOutside(DomainStore variables, int[] region, int type,
+			int lineIndex, int bit) {
+		int fired = 0;
+		for (int index : region) {
+			if (type == CSPSolver.ROW ? row(index) == row(lineIndex)
+					: column(index) == column(lineIndex))
+				continue;
+			int result = eliminate(variables, index, bit);
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+}
@@ -1,192 +1,234 @@
-package arai.csp;
-
-import java.util.HashMap;
-
-public class BruteForce {
-
-	public static final int NUMBER_OF_BOXES = 81;
-
-	// True if the puzzle has been solved
-	private boolean solved = false;
-
-	// A String array containing all variables
-	private String[] variables;
-	
-	private String[] endSolution;
-
-	// The Sudoku puzzle to be solved, unassigned variables are denoted with a
-	// point ('.').
-	private String puzzle;
-	
-	private void createVariableList() {
-		variables = new String[NUMBER_OF_BOXES];
-
-		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
-			if (puzzle.charAt(i) == '.') {
-				variables[i] = "0";
-			} else {
-				variables[i] = "" + puzzle.charAt(i);
-			}
-		}
-	}
-
-	public void solve(String puzzle) {
-		this.puzzle = puzzle;
-		
-		createVariableList();
-
-		String[] solution = recursiveBruteForce(variables, 0);
-		
-		// print output sudoku
-//		for (int i = 0; i < NUMBER_OF_BOXES; i++){
-//			System.out.print(solution[i]);
-//			if ((i+1)%3 == 0 && (i+1)%9 != 0){
-//				System.out.print("|");
-//			}
-//			if ((i+1)%27 == 0 && i < 70){
-//				System.out.println("");
-//				System.out.print("-----------");
-//			}
-//			if ((i+1)%9 == 0){
-//				System.out.println("");
-//			}
-//		}
-		
-	}
-
-	public String[] recursiveBruteForce(String[] varList, int depth){
-//		// output incoming sudoku
-//		System.out.println("");
-//		System.out.print("INCOMING AT DEPTH: ");
-//		System.out.println(depth);
-//		for (int i = 0; i < NUMBER_OF_BOXES; i++){
-//			System.out.print(varList[i]);
-//			if ((i+1)%3 == 0 && (i+1)%9 != 0){
-//				System.out.print("|");
-//			}
-//			if ((i+1)%27 == 0 && i < 70){
-//				System.out.println("");
-//				System.out.print("-----------");
-//			}
-//			if ((i+1)%9 == 0){
-//				System.out.println("");
-//			}
-//		}
-		
-		String[] solution = new String[NUMBER_OF_BOXES];
-		for (int i = 0; i < NUMBER_OF_BOXES; i++){
-			solution[i] = varList[i];
-		}
-		
-		if (depth >= NUMBER_OF_BOXES){
-			this.endSolution = varList;
-			this.solved = true;
-			solution = this.endSolution;
-			return solution;
-		}		
-		
-		if ((varList[depth]) != "0"){
-			solution = recursiveBruteForce(varList, (depth+1));
-		} else {
-			for (int i = 1; i <= 9; i++){
-				if(this.solved){
-//					System.out.println("-->SOLVED");
-					return this.endSolution;
-				}
-				if (possibleSetting(varList, i, depth)){
-					varList[depth] = Integer.toString(i);
-					solution = recursiveBruteForce(varList, (depth+1));
-				}
-				if(this.solved){
-//					System.out.println("-->SOLVED");
-					return this.endSolution;
-				}
-			}
-			varList[depth] = "0";
-			solution[depth] = "0";
-		}
-		// output returning sudoku
-//		System.out.println("------------>RETURNING---------->");		
-//		System.out.print("FROM DEPTH: ");
-//		System.out.println(depth);
-//		for (int i = 0; i < NUMBER_OF_BOXES; i++){
-//			System.out.print(varList[i]);
-//			if ((i+1)%3 == 0 && (i+1)%9 != 0){
-//				System.out.print("|");
-//			}
-//			if ((i+1)%27 == 0 && i < 70){
-//				System.out.println("");
-//				System.out.print("-----------");
-//			}
-//			if ((i+1)%9 == 0){
-//				System.out.println("");
-//			}
-//		}
-		return solution;
-	}
-	
-	public boolean possibleSetting(String[] varList, int number, int position){
-		if(inRow(varList, number, position)){
-			return false;
-		}
-		if(inColumn(varList, number, position)){
-			return false;
-		}
-		if(inRegion(varList, number, position)){
-			return false;
-		}
-		
-		return true;
-	}
-	
-	public boolean inRow(String[] varList, int number, int position){
-		int rowNo = position/9;
-		int startPosition = rowNo * 9;
-		for (int i = startPosition; i < startPosition+9; i++){
-			if(varList[i].equals(""+number)){
-				return true;
-			}
-		}
-				
-		return false;
-	}
-	
-	public boolean inColumn(String[] varList, int number, int position){
-		int columnNo = position % 9;
-		
-		for (int i = 0; i < 9; i++){
-			int checkPlace = columnNo + i * 9;
-			if(varList[checkPlace].equals(""+number)){
-				return true;
-			}
-		}
-		
-		return false;
-	}
-	
-	public boolean inRegion(String[] varList, int number, int position){
-		int rowNo = position/9;
-		int columnNo = position % 9;
-		int regionTopRow = (rowNo / 3) * 3;
-		int regionLeftColumn = (columnNo / 3) * 3;
-		for (int i = 0; i < 3; i++){
-			for (int j = 0; j < 3; j++){
-				int curColumn = (regionLeftColumn + j);
-				int curRow = (regionTopRow + i);
-				int checkPlace = curRow * 9 + curColumn;
-				if(varList[checkPlace].equals(""+number)){
-					return true;
-				}				
-			}
-		}
-		
-		return false;
-	}
-	
-}
-
-
-
-
-
-
+package arai.csp;
+
+/**
+ * Naive baseline: fills the unassigned boxes from left to right, top to
+ * bottom, trying the values 1 to 9 in order and backtracking when no value
+ * fits.
+ *
+ * The board is an int array (0 for an unassigned box) and the values used in
+ * each row, column and region are kept as bitmasks that are updated as values
+ * are placed and removed, so checking a candidate is three mask tests instead
+ * of scanning the row, column and region.
+ */
+public class BruteForce implements SudokuSolver {
+
+	public static final int NUMBER_OF_BOXES = 81;
+
+	// True if the puzzle has been solved
+	private boolean solved = false;
+
+	// The value of every box, 0 if unassigned
+	private final int[] variables = new int[NUMBER_OF_BOXES];
+
+	// The first solution found
+	private final int[] solution = new int[NUMBER_OF_BOXES];
+
+	// The search stops when this many solutions have been found
+	private int solutionLimit = 1;
+	private int solutionCount = 0;
+
+	// Limits the work per puzzle, or null
+	private SearchBudget budget = null;
+
+	// The outcome of the last solve, and the board when the budget ran out
+	private int status = UNSOLVABLE;
+	private final int[] partial = new int[NUMBER_OF_BOXES];
+
+	// The values used in each row, column and region (bit value - 1)
+	private final int[] rowValues = new int[9];
+	private final int[] columnValues = new int[9];
+	private final int[] regionValues = new int[9];
+
+	// The row, column and region of each box
+	private static final int[] ROW_OF = new int[NUMBER_OF_BOXES];
+	private static final int[] COLUMN_OF = new int[NUMBER_OF_BOXES];
+	private static final int[] REGION_OF = new int[NUMBER_OF_BOXES];
+
+	static {
+		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
+			ROW_OF[i] = i / 9;
+			COLUMN_OF[i] = i % 9;
+			REGION_OF[i] = (i / 27) * 3 + (i % 9) / 3;
+		}
+	}
+
+	// The work done for the last puzzle, or null if not counted
+	private SearchStats stats = new SearchStats();
+
+	/**
+	 * Count the work done for every puzzle (the default) or not. Without
+	 * counting, getStats() returns null.
+	 */
+	public void setStatsEnabled(boolean enabled) {
+		stats = enabled ? new SearchStats() : null;
+	}
+
+	@Override
+	public SearchStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public String getPartialSolution() {
+		if (status != BUDGET_EXCEEDED)
+			return null;
+
+		char[] chars = new char[NUMBER_OF_BOXES];
+		for (int i = 0; i < NUMBER_OF_BOXES; i++)
+			chars[i] = partial[i] == 0 ? '.' : (char) ('0' + partial[i]);
+		return new String(chars);
+	}
+
+	/**
+	 * Set the board and the masks from the puzzle.
+	 *
+	 * @return False if two given values conflict.
+	 */
+	private boolean createVariableList(CharSequence puzzle) {
+		for (int i = 0; i < 9; i++) {
+			rowValues[i] = 0;
+			columnValues[i] = 0;
+			regionValues[i] = 0;
+		}
+
+		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
+			char c = puzzle.charAt(i);
+			if (c < '1' || c > '9') {
+				variables[i] = 0;
+				continue;
+			}
+			int number = c - '0';
+			if (!possibleSetting(number, i))
+				return false;
+			place(number, i);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean solve(CharSequence puzzle) {
+		return countSolutions(puzzle, 1) > 0;
+	}
+
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		SolveEvent event = null;
+		if (SolveEvent.TYPE.isEnabled()) {
+			event = new SolveEvent();
+			event.begin();
+		}
+		this.solved = false;
+		status = UNSOLVABLE;
+		if (stats != null)
+			stats.reset();
+		if (budget != null)
+			budget.start();
+
+		solutionLimit = Math.max(1, limit);
+		solutionCount = 0;
+		if (createVariableList(puzzle))
+			recursiveBruteForce(0, 0);
+
+		solved = solutionCount > 0;
+		if (status != BUDGET_EXCEEDED)
+			status = solved ? SOLVED : UNSOLVABLE;
+		if (event != null)
+			event.complete(puzzle, "brute", status, solutionCount, stats);
+		return solutionCount;
+	}
+
+	@Override
+	public String getSolution() {
+		if (!solved)
+			return null;
+
+		char[] chars = new char[NUMBER_OF_BOXES];
+		for (int i = 0; i < NUMBER_OF_BOXES; i++)
+			chars[i] = (char) ('0' + solution[i]);
+		return new String(chars);
+	}
+
+	/**
+	 * Fill the first unassigned box from the given position on with each
+	 * value that fits, and recurse for the rest of the board.
+	 *
+	 * @param position
+	 *            The box to start looking from.
+	 * @param depth
+	 *            The number of values placed by the search so far.
+	 * @return True if the search should stop: the solution limit was reached
+	 *         or the budget ran out.
+	 */
+	private boolean recursiveBruteForce(int position, int depth) {
+		if (stats != null)
+			stats.depth(depth);
+
+		if (budget != null && budget.step()) {
+			if (status != BUDGET_EXCEEDED) {
+				status = BUDGET_EXCEEDED;
+				System.arraycopy(variables, 0, partial, 0, NUMBER_OF_BOXES);
+			}
+			return true;
+		}
+
+		while (position < NUMBER_OF_BOXES && variables[position] != 0)
+			position++;
+		if (position >= NUMBER_OF_BOXES) {
+			if (solutionCount == 0)
+				System.arraycopy(variables, 0, solution, 0, NUMBER_OF_BOXES);
+			solutionCount++;
+			return solutionCount >= solutionLimit;
+		}
+
+		for (int number = 1; number <= 9; number++) {
+			if (!possibleSetting(number, position))
+				continue;
+			place(number, position);
+			if (stats != null)
+				stats.nodes++;
+			if (recursiveBruteForce(position + 1, depth + 1))
+				return true;
+			remove(position);
+			if (stats != null)
+				stats.backtracks++;
+		}
+		return false;
+	}
+
+	/**
+	 * True if the number is not used yet in the row, column or region of the
+	 * box.
+	 */
+	public boolean possibleSetting(int number, int position) {
+		int used = rowValues[ROW_OF[position]]
+				| columnValues[COLUMN_OF[position]]
+				| regionValues[REGION_OF[position]];
+		return (used & (Domains.bit(number))) == 0;
+	}
+
+	private void place(int number, int position) {
+		int bit = Domains.bit(number);
+		variables[position] = number;
+		rowValues[ROW_OF[position]] |= bit;
+		columnValues[COLUMN_OF[position]] |= bit;
+		regionValues[REGION_OF[position]] |= bit;
+	}
+
+	private void remove(int position) {
+		int bit = ~(1 << (variables[position] - 1));
+		variables[position] = 0;
+		rowValues[ROW_OF[position]] &= bit;
+		columnValues[COLUMN_OF[position]] &= bit;
+		regionValues[REGION_OF[position]] &= bit;
+	}
+}
@@ -1,9 +1,14 @@
 package arai.csp;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class CSPSolver {
+public class CSPSolver implements SudokuSolver {
 
 	public static final int NUMBER_OF_BOXES_IN_ROW = 9;
 	public static final int NUMBER_OF_BOXES_IN_CLM = 9;
@@ -15,42 +20,267 @@ public class CSPSolver {
 	public static final int NUMBER_OF_PEERS_PER_ROW = NUMBER_OF_BOXES_IN_ROW - 1;
 	public static final int NUMBER_OF_PEERS_PER_BOX = 20;
 
-	public static final String SPLIT_ALL = "(?!^)";
-
-	public static final int CHECK_ALL = -1;
-
 	public static final int ROW = 0;
 	public static final int COLUMN = 1;
 	public static final int REGION = 2;
 
+	// Room for a grid as shown by solution()
+	private static final int SHOWN_LENGTH = 256;
+
 	// Checks if the puzzle has been solved.
 	private boolean isSolved = false;
 
-	// Checks if any of the variables has an empty domain
-	private boolean hasEmptyDomain = false;
-
 	// Used for displaying the puzzle as it is being solved.
 	private long printDelay = 0;
 
-	// A String array containing the domains for all variables
-	private String[] variables;
-
-	// An int array containing the number of assigned occurrences for each value
-	private int[] occurrences;
+	// The domains for all variables as 9-bit masks (see Domains) and the
+	// trail used to undo changes when backtracking
+	private final DomainStore variables = new DomainStore();
 
 	// First index signifies the variable (zero-indexed). The second index
-	// refers
-	// to either the ROW, COLUMN or REGION. The last index holds the index of
-	// its peers.
-	private int[][][] peers;
+	// refers to either the ROW, COLUMN or REGION. The last index holds the
+	// index of its peers. Like the other tables of the grid, built once and
+	// shared by all solvers; never changed afterwards.
+	private static final int[][][] PEERS = new int[NUMBER_OF_BOXES][3][NUMBER_OF_PEERS_PER_ROW];
 
-	// Contains all peers of each box without duplicates (otherwise region peers
-	// cause
-	// overlap with row and column peers)
-	private int[][] peersAll;
+	// Contains all peers of each box without duplicates (otherwise region
+	// peers overlap with row and column peers)
+	private static final int[][] PEERS_ALL = new int[NUMBER_OF_BOXES][NUMBER_OF_PEERS_PER_BOX];
 
-	public CSPSolver() {
+	// First index refers to either the ROW, COLUMN or REGION, the second index
+	// to the number of the unit (0-8). The last index holds the variables in
+	// the unit.
+	private static final int[][][] UNITS = new int[3][NUMBER_OF_BOXES_IN_ROW][];
+
+	static {
 		setPeers();
+		setUnits();
+	}
+
+	// The inference rules applied on top of the basic constraints
+	private final InferenceRules rules;
+
+	// Choose the variable to assign next and the order of its values
+	private VariableOrdering variableOrdering = new MrvVariableOrdering();
+	private ValueOrdering valueOrdering = new LcvValueOrdering();
+
+	// Pool to search the subtrees near the root in parallel, or null to
+	// search on the calling thread only
+	private ForkJoinPool splitPool = null;
+
+	// The number of levels below the root that are split into tasks
+	private int splitDepth = 1;
+
+	// The work done for the last puzzle, or null if not counted
+	private SearchStats stats = new SearchStats();
+
+	// Set by the first parallel task that finds a solution; the other tasks
+	// stop searching as soon as it is set. Null if the search is not split.
+	private AtomicReference<int[]> parallelSolution = null;
+
+	// Limits the work per puzzle, or null
+	private SearchBudget budget = null;
+
+	// The part of the budget given to the tasks of a parallel search, or null
+	private SearchBudget splitBudget = null;
+
+	// The outcome of the last solve, and the domains reached when the
+	// budget ran out
+	private int status = UNSOLVABLE;
+	private final int[] partialDomains = new int[NUMBER_OF_BOXES];
+
+	// The number of solutions to count before the search stops, or 0 to stop
+	// at the first solution (see countSolutions())
+	private int solutionLimit = 0;
+
+	// The solutions found so far when counting, and the first of them
+	private int solutionCount = 0;
+	private final int[] firstSolution = new int[NUMBER_OF_BOXES];
+
+	// Jump back to the cause of a failure instead of the previous level (see
+	// setBackjumping()), and the nogoods learned from failures, or null
+	private boolean backjumping = false;
+	private NogoodStore nogoods = null;
+
+	// The variable and value decided at each level of the search
+	private final int[] decisionIndex = new int[NUMBER_OF_BOXES + 1];
+	private final int[] decisionValue = new int[NUMBER_OF_BOXES + 1];
+
+	// The level the search started from: 0, or the depth of a task of a
+	// parallel search, whose decisions above it hold for the whole task
+	private int rootDepth = 0;
+
+	// The nogood being learned
+	private final int[] nogoodIndexes = new int[NogoodStore.MAX_LENGTH];
+	private final int[] nogoodValues = new int[NogoodStore.MAX_LENGTH];
+
+	// The Flight Recorder event of the solve in progress, or null if the
+	// event is disabled
+	private SolveEvent solveEvent = null;
+
+	public CSPSolver() {
+		this(InferenceRules.standard());
+	}
+
+	/**
+	 * A solver keeps the state of the puzzle in progress and is meant for one
+	 * thread; to share one between threads, see SharedSolver. Creating one is
+	 * cheap, the tables of the grid are shared.
+	 * 
+	 * @param rules
+	 *            The inference rules to apply during constraint propagation.
+	 */
+	public CSPSolver(InferenceRules rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Count the work done for every puzzle (the default) or not. Without
+	 * counting, getStats() returns null.
+	 */
+	public void setStatsEnabled(boolean enabled) {
+		stats = enabled ? new SearchStats() : null;
+	}
+
+	@Override
+	public SearchStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Set the heuristics of the search (see Orderings). The defaults are
+	 * minimum remaining values and least constraining value.
+	 * 
+	 * @param variableOrdering
+	 *            Chooses the variable to assign next; used by this solver
+	 *            only.
+	 * @param valueOrdering
+	 *            Chooses the order of its values.
+	 */
+	public void setOrderings(VariableOrdering variableOrdering,
+			ValueOrdering valueOrdering) {
+		this.variableOrdering = variableOrdering;
+		this.valueOrdering = valueOrdering;
+	}
+
+	/**
+	 * Use conflict-directed backjumping, or plain backtracking (the default).
+	 * 
+	 * With backjumping, the domains keep track of the search levels that
+	 * caused each removed value (see DomainStore.setExplaining()). When all
+	 * values of a variable fail, the search returns straight to the deepest
+	 * level that caused one of the failures, skipping the levels in between:
+	 * other values there would fail in the same way. Counting solutions (see
+	 * countSolutions()) always backtracks level by level.
+	 * 
+	 * The reasons of a failure can also be learned as a nogood, which is
+	 * checked during propagation from then on (see NogoodStore).
+	 * 
+	 * @param enabled
+	 *            True to jump back to the cause of a failure.
+	 * @param nogoodCapacity
+	 *            The number of nogoods to keep per puzzle, or 0 to learn
+	 *            none.
+	 */
+	public void setBackjumping(boolean enabled, int nogoodCapacity) {
+		this.backjumping = enabled;
+		this.nogoods = enabled && nogoodCapacity > 0 ? new NogoodStore(
+				nogoodCapacity) : null;
+	}
+
+	public boolean isBackjumping() {
+		return backjumping;
+	}
+
+	/**
+	 * The nogoods learned for the last puzzle, or null if none are learned.
+	 */
+	public NogoodStore getNogoods() {
+		return nogoods;
+	}
+
+	public VariableOrdering getVariableOrdering() {
+		return variableOrdering;
+	}
+
+	public ValueOrdering getValueOrdering() {
+		return valueOrdering;
+	}
+
+	@Override
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Reset the outcome and the statistics and start the budget for a new
+	 * puzzle.
+	 */
+	private void begin() {
+		isSolved = false;
+		status = UNSOLVABLE;
+		if (stats != null)
+			stats.reset();
+		if (budget != null)
+			budget.start();
+		variableOrdering.reset();
+		variables.setExplaining(backjumping);
+		if (nogoods != null)
+			nogoods.clear();
+		solveEvent = null;
+		if (SolveEvent.TYPE.isEnabled()) {
+			solveEvent = new SolveEvent();
+			solveEvent.begin();
+		}
+	}
+
+	/**
+	 * Record the solve that ended as a SolveEvent, if it is enabled.
+	 * 
+	 * @param puzzle
+	 *            The puzzle that was solved.
+	 * @param solutions
+	 *            The number of solutions found.
+	 */
+	private void end(CharSequence puzzle, int solutions) {
+		if (solveEvent == null)
+			return;
+		solveEvent.complete(puzzle, (backjumping ? "cbj/" : "csp/")
+				+ variableOrdering.getName() + "/" + valueOrdering.getName(),
+				status, solutions, stats);
+		solveEvent = null;
+	}
+
+	/**
+	 * Search the subtrees near the root in parallel on the given pool: every
+	 * value of the variables selected in the first levels becomes a separate
+	 * fork/join task, and the first task to find a solution cancels the
+	 * others. Meant for very hard puzzles, where this cuts the latency of a
+	 * single solve; for a batch of puzzles, BatchSolver uses the cores better.
+	 * 
+	 * @param pool
+	 *            The pool to run the tasks on, or null to search on the
+	 *            calling thread only (the default).
+	 * @param splitDepth
+	 *            The number of levels below the root to split into tasks (at
+	 *            least 1).
+	 */
+	public void setParallelSearch(ForkJoinPool pool, int splitDepth) {
+		this.splitPool = pool;
+		this.splitDepth = Math.max(1, splitDepth);
+	}
+
+	/**
+	 * The inference rules used during constraint propagation, to switch rules
+	 * on or off and to read how often they fired.
+	 */
+	public InferenceRules getRules() {
+		return rules;
 	}
 
 	/**
@@ -58,18 +288,15 @@ public class CSPSolver {
 	 * (box).
 	 * 
 	 */
-	private void setPeers() {
+	private static void setPeers() {
 		int peer = 0;
 		int peerAll = 0;
 		int rowNo = 0;
 		int clmNo = 0;
 
-		peers = new int[NUMBER_OF_BOXES][3][NUMBER_OF_PEERS_PER_ROW];
-		peersAll = new int[NUMBER_OF_BOXES][NUMBER_OF_PEERS_PER_BOX];
-
 		for (int i = 0; i < NUMBER_OF_BOXES; i++)
 			for (int j = 0; j < NUMBER_OF_PEERS_PER_BOX; j++)
-				peersAll[i][j] = -1;
+				PEERS_ALL[i][j] = -1;
 
 		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
 			// Set ROWS
@@ -81,8 +308,8 @@ public class CSPSolver {
 				// Exclude self from peers
 				if (j == i)
 					continue;
-				peers[i][ROW][peer++] = j;
-				peersAll[i][peerAll++] = j;
+				PEERS[i][ROW][peer++] = j;
+				PEERS_ALL[i][peerAll++] = j;
 			}
 			// Set COLUMNS
 			peer = 0;
@@ -92,8 +319,8 @@ public class CSPSolver {
 				// Exclude self from peers
 				if (posClm == i)
 					continue;
-				peers[i][COLUMN][peer++] = posClm;
-				peersAll[i][peerAll++] = posClm;
+				PEERS[i][COLUMN][peer++] = posClm;
+				PEERS_ALL[i][peerAll++] = posClm;
 			}
 			// Set REGIONS
 			peer = 0;
@@ -107,67 +334,93 @@ public class CSPSolver {
 					// Exclude self from peers
 					if (posReg == i)
 						continue;
-					peers[i][REGION][peer++] = posReg;
-					// Avoid duplicates in peersAll array
+					PEERS[i][REGION][peer++] = posReg;
+					// Avoid duplicates in PEERS_ALL
 					if (curRow != rowNo && curClm != clmNo)
-						peersAll[i][peerAll++] = posReg;
+						PEERS_ALL[i][peerAll++] = posReg;
 				}
 			}
 		}
 	}
 
+	/**
+	 * Set the units (the full ROW, COLUMN or REGION) from the peers of the
+	 * first variable in each unit.
+	 */
+	private static void setUnits() {
+		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
+			int rowNo = i / NUMBER_OF_BOXES_IN_ROW;
+			int clmNo = i % NUMBER_OF_BOXES_IN_CLM;
+			int[] unitNo = new int[3];
+			unitNo[ROW] = rowNo;
+			unitNo[COLUMN] = clmNo;
+			unitNo[REGION] = (rowNo / NUMBER_OF_REGIONS_IN_CLM)
+					* NUMBER_OF_REGIONS_IN_ROW + clmNo / NUMBER_OF_REGIONS_IN_ROW;
+			for (int type = ROW; type <= REGION; type++) {
+				if (UNITS[type][unitNo[type]] != null)
+					continue;
+				int[] unit = new int[NUMBER_OF_BOXES_IN_ROW];
+				unit[0] = i;
+				System.arraycopy(PEERS[i][type], 0, unit, 1,
+						NUMBER_OF_PEERS_PER_ROW);
+				UNITS[type][unitNo[type]] = unit;
+			}
+		}
+	}
+
 	/**
 	 * Initialize the variables and domains.
 	 * 
 	 * Compute the row and column of each variable.
 	 */
-	private void initVariables(String puzzle) {
-		variables = new String[NUMBER_OF_BOXES];
-		// occurrences = new int[10];
-
-		for (int index = 0; index < NUMBER_OF_BOXES; index++) {
-			if (puzzle.charAt(index) == '.') {
-				variables[index] = "123456789";
-			} else {
-				variables[index] = "" + puzzle.charAt(index);
-				// occurrences[Integer.valueOf("" + puzzle.charAt(index))]++;
-			}
-		}
+	private void initVariables(CharSequence puzzle) {
+		variables.init(puzzle);
 	}
 
 	/**
-	 * Check the row, column or region of the given variable to reduce its
-	 * domain.
+	 * Remove the value of the given (assigned) variable from the domains of
+	 * its peers.
 	 * 
-	 * If an element of the given variable is already present in another
-	 * variable with domain length 1 (assigned) in the same row, column or
-	 * region, then remove that element from its domain.
+	 * If an element of a variable's domain is already assigned to another
+	 * variable in the same row, column or region, then it can't possibly be
+	 * assigned to that variable and must, therefore, be removed from its
+	 * domain.
 	 * 
 	 * Most basic reasoning method for solving Sudoku puzzles. May not be
 	 * sufficient for more difficult puzzles.
 	 * 
-	 * @param type
-	 *            The area in the puzzle to check its constraints for. Can be
-	 *            either ROW, COLUMN or REGION (0, 1 or 2).
+	 * Assigned peers are checked as well, so two peers assigned the same
+	 * value leave an empty domain behind.
+	 * 
 	 * @param index
-	 *            The index of the current variable in the variables array.
-	 * @param tempVariables
+	 *            The index of the assigned variable in the variables array.
+	 * @return False if the domain of one of the peers became empty.
 	 */
-	private void basicConstraints(int type, int index, String[] tempVariables) {
-		// Check the actual constraints...
-		// If a possible value in the variables domain has already been
-		// assigned to another variable in the same ROW, COLUMN or REGION,
-		// then it can't possibly be assigned to the current variable and
-		// must, therefore, be removed from its domain.
-		for (String value : tempVariables[index].split(SPLIT_ALL)) {
-			for (int i = 0; i < NUMBER_OF_PEERS_PER_ROW; i++) {
-				String peerValues = tempVariables[peers[index][type][i]];
-				if (peerValues.length() == 1 && peerValues.contains(value)) {
-					tempVariables[index] = tempVariables[index].replace(value,
-							"");
-				}
+	private boolean basicConstraints(int index) {
+		int value = variables.get(index);
+		// The peers lose the value for the same reason the variable got it
+		long reason = 0;
+		if (variables.isExplaining()) {
+			reason = variables.reasonOf(index);
+			variables.because(reason);
+		}
+		for (int i = 0; i < NUMBER_OF_PEERS_PER_BOX; i++) {
+			int peer = PEERS_ALL[index][i];
+			int domain = variables.get(peer);
+			if ((domain & value) == 0)
+				continue;
+			domain &= ~value;
+			if (domain == 0) {
+				variableOrdering.conflict(index, peer);
+				if (variables.isExplaining())
+					variables.conflict(reason | variables.reasonOf(peer));
+				return false;
 			}
+			variables.set(peer, domain);
+			if (stats != null)
+				stats.eliminations++;
 		}
+		return true;
 	}
 
 	/**
@@ -177,19 +430,118 @@ public class CSPSolver {
 	 * 
 	 * @param puzzle
 	 *            The Sudoku puzzle to be solved.
+	 * @return True if a solution was found.
 	 */
-	public void solve(String puzzle) {
-
-		isSolved = false;
-		hasEmptyDomain = false;
+	@Override
+	public boolean solve(CharSequence puzzle) {
 
+		begin();
 		initVariables(puzzle);
 
 		// printDelay = System.nanoTime();
 
-		dfSearch(variables.clone(), CHECK_ALL);
+		boolean found = splitPool == null ? dfSearch(0) : parallelSearch();
+
+		// Without a solution, show the original puzzle again
+		if (!found)
+			variables.undo(0);
+		if (status != BUDGET_EXCEEDED)
+			status = isSolved ? SOLVED : UNSOLVABLE;
+		end(puzzle, isSolved ? 1 : 0);
 
 		// System.out.println(solution());
+		return isSolved;
+	}
+
+	/**
+	 * Count the solutions of a puzzle, stopping as soon as the limit is
+	 * reached. With a limit of 2 this is a uniqueness check: 0 means the
+	 * puzzle has no solution, 1 that it has exactly one and 2 that it has
+	 * several.
+	 * 
+	 * The search is the same as for solve(), with the same propagation and
+	 * heuristics, but it goes on after a solution is found. It always runs
+	 * on the calling thread, also when a parallel search is set; use
+	 * BatchSolver.countFile() to check many puzzles in parallel. If the
+	 * puzzle has a solution, the first one found is available from
+	 * getSolution() afterwards.
+	 * 
+	 * If the budget runs out, the status is BUDGET_EXCEEDED and the count is
+	 * only a lower bound, even if solutions were found.
+	 * 
+	 * @param puzzle
+	 *            The Sudoku puzzle to check.
+	 * @param limit
+	 *            The number of solutions after which to stop (at least 1).
+	 * @return The number of solutions, at most the limit.
+	 */
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		begin();
+		initVariables(puzzle);
+
+		solutionLimit = Math.max(1, limit);
+		solutionCount = 0;
+		// A subtree with solutions has not failed, so no jumping
+		variables.setExplaining(false);
+		dfSearch(0);
+		solutionLimit = 0;
+
+		// Leave the first solution in place, or the original puzzle
+		variables.undo(0);
+		if (solutionCount > 0) {
+			for (int index = 0; index < NUMBER_OF_BOXES; index++)
+				variables.set(index, firstSolution[index]);
+			variables.clearWorklist();
+		}
+		isSolved = solutionCount > 0;
+		if (status != BUDGET_EXCEEDED)
+			status = isSolved ? SOLVED : UNSOLVABLE;
+		end(puzzle, solutionCount);
+		return solutionCount;
+	}
+
+	/**
+	 * Only load the puzzle and propagate the constraints, without searching.
+	 * Used to measure the propagation step on its own.
+	 * 
+	 * @param puzzle
+	 *            The Sudoku puzzle to propagate.
+	 * @return False if propagation led to an empty domain.
+	 */
+	boolean propagate(CharSequence puzzle) {
+		isSolved = false;
+		if (stats != null)
+			stats.reset();
+		initVariables(puzzle);
+		return constraintProp();
+	}
+
+	/**
+	 * Search for a solution from the given (propagated) domains instead of a
+	 * puzzle, e.g. from the state of a SolvingSession.
+	 * 
+	 * @param domains
+	 *            The domains of all variables (see DomainStore.toArray()).
+	 * @return True if a solution was found.
+	 */
+	boolean solve(int[] domains) {
+		begin();
+		variables.load(domains);
+		if (!dfSearch(0))
+			variables.undo(0);
+		if (status != BUDGET_EXCEEDED)
+			status = isSolved ? SOLVED : UNSOLVABLE;
+		if (solveEvent != null)
+			end(puzzleOf(domains), isSolved ? 1 : 0);
+		return isSolved;
+	}
+
+	/**
+	 * The domains this solver propagates and searches on.
+	 */
+	DomainStore getVariables() {
+		return variables;
 	}
 
 	/**
@@ -203,8 +555,10 @@ public class CSPSolver {
 	 * the previous assigned variables was incorrect.
 	 * 
 	 * If there is no empty domain found (yet), we need to check if the puzzle
-	 * is solved (all variables have correct assignments). If it is solved, copy
-	 * the final assignments to the original variable array and end the search.
+	 * is solved (all variables have correct assignments). If it is solved, the
+	 * final assignments are left in place and the search ends. When counting
+	 * solutions (see countSolutions()), the solution is counted instead and
+	 * the search only ends once the limit is reached.
 	 * 
 	 * If it is not (yet) solved, use a heuristic to determine which variable
 	 * needs to be assigned a value first. An ordered list is created to loop
@@ -213,223 +567,383 @@ public class CSPSolver {
 	 * of the possible variable assignments lead to an empty domain, go "up" one
 	 * level and try the next variable value there, etc.
 	 * 
-	 * @param tempVariables
-	 * @param assigned
-	 *            Has a value of -1 if the constraints for all boxes need to be
-	 *            checked. Otherwise has a value between 0 and NUMBER_OF_BOXES -
-	 *            1.
+	 * Instead of copying the domains for every value that is tried, a mark is
+	 * taken on the trail and all changes made below it are undone before the
+	 * next value is tried.
+	 * 
+	 * Every call counts as a node of the budget, if one is set. When the
+	 * budget runs out the domains are kept for getPartialSolution() and the
+	 * search unwinds without trying further values.
+	 * 
+	 * With backjumping (see setBackjumping()), a failed call leaves the
+	 * levels that caused the failure as the conflict of the domains. A level
+	 * whose decision is not among them fails at once with the same conflict;
+	 * otherwise the conflicts of all its values are combined into its own.
+	 * 
+	 * @param depth
+	 *            The number of values assigned by the search so far.
 	 * @return
 	 */
-	private boolean dfSearch(String[] tempVariables, int assigned) {
+	private boolean dfSearch(int depth) {
 
-		constraintProp(tempVariables, assigned);
+		boolean explaining = variables.isExplaining();
+		if (explaining)
+			variables.setLevel(depth);
+
+		// Another task of a parallel search has already found a solution
+		if (parallelSolution != null && parallelSolution.get() != null) {
+			variables.explainByLevels();
+			return false;
+		}
+
+		if (budget != null && budget.step()) {
+			variables.explainByLevels();
+			if (status != BUDGET_EXCEEDED) {
+				status = BUDGET_EXCEEDED;
+				for (int index = 0; index < NUMBER_OF_BOXES; index++)
+					partialDomains[index] = variables.get(index);
+			}
+			return false;
+		}
+
+		boolean consistent = constraintProp();
 
 		// if (printDelay + 100000000 < System.nanoTime()) {
-		// System.out.println(getCurrentAssignments(tempVariables));
+		// System.out.println(getCurrentAssignments(variables.toArray()));
 		// printDelay = System.nanoTime();
 		// }
 
-		if (hasEmptyDomain) {
-			hasEmptyDomain = false;
+		if (!consistent)
 			return false;
-		}
+
+		if (stats != null)
+			stats.depth(depth);
 
 		if (!isSolved) {
-			int varIndex = singleVarSelection(tempVariables);
-			String domain = tempVariables[varIndex];
-			// String[] sortedValues =
-			// sortDomainByOccurrence(tempVariables[varIndex]
-			// .split(SPLIT_ALL));
-			// for (String value : sortedValues) {
-			while (domain.length() > 0) {
-				int value = getLeastOccurringValue(varIndex,
-						domain.split(SPLIT_ALL), tempVariables);
-				tempVariables[varIndex] = "" + value;
-				// occurrences[Integer.valueOf(value)]++;
-				if (dfSearch(tempVariables.clone(), varIndex))
+			int varIndex = variableOrdering.select(variables, PEERS_ALL);
+			int domain = variables.get(varIndex);
+			int mark = variables.mark();
+
+			// Recorded if the subtree fails after a long time
+			BacktrackEvent backtrack = null;
+			long nodesBefore = 0;
+			if (BacktrackEvent.TYPE.isEnabled()) {
+				backtrack = new BacktrackEvent();
+				backtrack.begin();
+				if (stats != null)
+					nodesBefore = stats.nodes;
+			}
+
+			// The decision of the next level, and the reasons why its values
+			// fail: to begin with, why the other values are gone
+			int level = depth + 1;
+			long levelBit = DomainStore.levelBit(level);
+			long conflicts = 0;
+			if (explaining) {
+				decisionIndex[level] = varIndex;
+				conflicts = variables.reasonOf(varIndex);
+			}
+
+			while (domain != 0) {
+				int value = valueOrdering.next(variables, PEERS_ALL, varIndex,
+						domain);
+				if (explaining) {
+					decisionValue[level] = value;
+					variables.because(levelBit);
+				}
+				variables.set(varIndex, Domains.bit(value));
+				if (stats != null)
+					stats.nodes++;
+				if (dfSearch(depth + 1))
 					return true;
-				// occurrences[Integer.valueOf(value)]--;
-				domain = domain.replace("" + value, "");
+				// Out of budget: unwind without trying further values
+				if (status == BUDGET_EXCEEDED)
+					return false;
+				variables.undo(mark);
+				if (stats != null)
+					stats.backtracks++;
+				domain &= ~Domains.bit(value);
+
+				if (explaining) {
+					long conflict = variables.getConflict();
+					// Not caused by this decision: jump back further
+					if ((conflict & levelBit) == 0) {
+						if (stats != null)
+							stats.backjumps++;
+						if (backtrack != null)
+							endBacktrack(backtrack, depth, varIndex,
+									nodesBefore, true);
+						return false;
+					}
+					if (level < DomainStore.DEEPEST_LEVEL)
+						conflict &= ~levelBit;
+					conflicts |= conflict;
+				}
+			}
+
+			if (explaining) {
+				learn(conflicts);
+				variables.conflict(conflicts);
 			}
+			if (backtrack != null)
+				endBacktrack(backtrack, depth, varIndex, nodesBefore, false);
 			return false;
-		} else {
-			variables = tempVariables.clone();
 		}
-		return true;
+
+		if (solutionLimit == 0)
+			return true;
+
+		// Count the solution and keep backtracking until the limit
+		if (solutionCount == 0)
+			for (int index = 0; index < NUMBER_OF_BOXES; index++)
+				firstSolution[index] = variables.get(index);
+		solutionCount++;
+		return solutionCount >= solutionLimit;
 	}
 
 	/**
-	 * Heuristic used for variable selection.
-	 * 
-	 * The variable with the shortest domain is selected for assignment.
-	 * Elements in the variables domain are chosen left-to-right (no heuristic).
-	 * 
-	 * @param tempVariables
-	 * @return
+	 * Record a failed subtree as a BacktrackEvent, unless the search only
+	 * stopped because the budget ran out or another task of a parallel
+	 * search found a solution.
 	 */
-	private int singleVarSelection(String[] tempVariables) {
-		int varIndex = 0;
-		int shortest = Integer.MAX_VALUE;
-		for (int i = 0; i < NUMBER_OF_BOXES; i++) {
-			if (tempVariables[i].length() > 1
-					&& tempVariables[i].length() < shortest) {
-				shortest = tempVariables[i].length();
-				varIndex = i;
-			}
-		}
-		return varIndex;
+	private void endBacktrack(BacktrackEvent backtrack, int depth,
+			int varIndex, long nodesBefore, boolean backjump) {
+		if (status == BUDGET_EXCEEDED
+				|| (parallelSolution != null && parallelSolution.get() != null))
+			return;
+		backtrack.complete(depth, varIndex, stats != null ? stats.nodes
+				- nodesBefore : 0, backjump);
 	}
 
 	/**
-	 * Sorts the domain of the assigned variable by the number of times the
-	 * value in the domain has been assigned in the full puzzle starting with
-	 * the most occurrences.
-	 * 
-	 * @param unsorted
-	 * @return
+	 * Keep the decisions of the given levels as a nogood, if nogoods are
+	 * learned. Levels that share the last bit of a reason can't be told
+	 * apart, so such a reason is not learned. Levels above the root of the
+	 * search hold throughout and are left out.
 	 */
-	private String[] sortDomainByOccurrence(String[] unsorted) {
-		String tempValue = "";
-		int tempOccur = 0;
-
-		String[] sorted = new String[unsorted.length];
-		int[] occurrenceCount = new int[unsorted.length];
-
-		for (int i = 0; i < sorted.length; i++)
-			sorted[i] = "";
-
-		for (int i = 0; i < unsorted.length; i++) {
-			int value = Integer.valueOf(unsorted[i]);
-			int occurrence = occurrences[value];
-			for (int j = 0; j < unsorted.length; j++) {
-				if (occurrence >= occurrenceCount[j]) {
-					// Sort the occurrences of elements...
-					tempOccur = occurrenceCount[j];
-					occurrenceCount[j] = occurrence;
-					occurrence = tempOccur;
-					// to sort the elements in the domain
-					tempValue = sorted[j];
-					sorted[j] = "" + value;
-					if (tempValue.equals(""))
-						break;
-					value = Integer.valueOf(tempValue);
-				}
-			}
+	private void learn(long levels) {
+		if (nogoods == null
+				|| (levels & DomainStore.levelBit(DomainStore.DEEPEST_LEVEL)) != 0)
+			return;
+		levels &= ~DomainStore.levelsUpTo(rootDepth);
+		if (levels == 0 || Long.bitCount(levels) > NogoodStore.MAX_LENGTH)
+			return;
+		int length = 0;
+		for (long rest = levels; rest != 0; rest &= rest - 1) {
+			int level = Long.numberOfTrailingZeros(rest);
+			nogoodIndexes[length] = decisionIndex[level];
+			nogoodValues[length] = decisionValue[level];
+			length++;
 		}
-
-		return sorted;
+		nogoods.add(nogoodIndexes, nogoodValues, length);
 	}
 
 	/**
-	 * Implementation of least constraining value selection.
+	 * Propagate at the root, then search the subtrees of the first levels in
+	 * parallel (see setParallelSearch()). The solution of the winning task is
+	 * copied into the variables.
 	 * 
-	 * @param varIndex
-	 * @param values
 	 * @return
 	 */
-	private int getLeastOccurringValue(int varIndex, String[] values,
-			String[] tempVariables) {
-		int leastI = Integer.MAX_VALUE;
-		int leastV = 0;
-		int valueCount = 0;
-
-		for (int i = 0; i < values.length; i++) {
-			valueCount = 0;
-			for (int peer = 0; peer < NUMBER_OF_PEERS_PER_BOX; peer++) {
-				if (tempVariables[peersAll[varIndex][peer]].contains(values[i]))
-					valueCount++;
-			}
-			if (valueCount < leastI) {
-				leastI = valueCount;
-				leastV = Integer.valueOf(values[i]);
-			}
-		}
-		return leastV;
+	private boolean parallelSearch() {
+		if (!constraintProp())
+			return false;
+		if (isSolved)
+			return true;
+
+		// The tasks stop each other through a budget of their own, so the
+		// budget given is never cancelled by the search
+		splitBudget = budget != null ? budget.child() : null;
+		AtomicReference<int[]> solution = new AtomicReference<int[]>();
+		splitPool.invoke(new SplitSearch(this, variables.toArray(), -1, 0, 0,
+				solution));
+		if (solution.get() == null)
+			return false;
+
+		for (int index = 0; index < NUMBER_OF_BOXES; index++)
+			variables.set(index, solution.get()[index]);
+		variables.clearWorklist();
+		isSolved = true;
+		return true;
 	}
 
 	/**
-	 * Loop through all boxes and check all three main constraints. Continue
-	 * until no variable domains can be further reduced. This indicates either
-	 * that the puzzle has been solved or that more advanced solving techniques
-	 * are necessary to complete it.
+	 * A subtree of a parallel search: the domains at its parent plus the value
+	 * assigned to one variable. Down to the split depth, the subtree is split
+	 * again into one task per value of the next variable; below it, the
+	 * subtree is searched with dfSearch() by a solver of its own. Its
+	 * statistics are added to those of the parent.
 	 */
-	private void constraintProp(String[] tempVariables, int assigned) {
-		boolean reduced = false;
-		boolean solved = true;
-		boolean peersSolved = true;
-
-		if (assigned == CHECK_ALL) {
-			peersSolved = false;
-			for (int index = 0; index < NUMBER_OF_BOXES; index++) {
-				int varLength = tempVariables[index].length();
-
-				// Only has one value in its domain
-				if (varLength == 1)
-					continue;
+	private static class SplitSearch extends RecursiveAction {
 
-				// Occurrence of empty domain, terminate propagation
-				if (varLength == 0) {
-					hasEmptyDomain = true;
-					return;
-				}
+		private static final long serialVersionUID = 1L;
+
+		private final CSPSolver parent;
+		private final int[] domains;
+		private final int varIndex;
+		private final int value;
+		private final int depth;
+		private final AtomicReference<int[]> solution;
 
-				// Not all variables have been assigned values
-				solved = false;
+		/**
+		 * @param varIndex
+		 *            The variable to assign, or -1 at the root.
+		 */
+		SplitSearch(CSPSolver parent, int[] domains, int varIndex, int value,
+				int depth, AtomicReference<int[]> solution) {
+			this.parent = parent;
+			this.domains = domains;
+			this.varIndex = varIndex;
+			this.value = value;
+			this.depth = depth;
+			this.solution = solution;
+		}
 
-				basicConstraints(ROW, index, tempVariables);
-				basicConstraints(COLUMN, index, tempVariables);
-				basicConstraints(REGION, index, tempVariables);
-				// more (advanced) constraints...
+		@Override
+		protected void compute() {
+			if (solution.get() != null)
+				return;
 
-				if (!reduced && tempVariables[index].length() < varLength)
-					reduced = true;
+			CSPSolver solver = new CSPSolver(parent.rules.copy());
+			solver.setStatsEnabled(parent.stats != null);
+			solver.setOrderings(parent.variableOrdering.copy(),
+					parent.valueOrdering);
+			if (parent.backjumping) {
+				solver.setBackjumping(true, parent.nogoods == null ? 0
+						: parent.nogoods.getCapacity());
+				solver.variables.setExplaining(true);
+				solver.rootDepth = depth;
+			}
+			solver.parallelSolution = solution;
+			if (parent.splitBudget != null)
+				solver.budget = parent.splitBudget.child();
+			solver.variables.load(domains);
+			if (varIndex >= 0) {
+				solver.variables.set(varIndex, Domains.bit(value));
+				if (solver.stats != null)
+					solver.stats.nodes++;
 			}
-		} else {
-			for (int index = 0; index < NUMBER_OF_PEERS_PER_BOX; index++) {
-				int peer = peersAll[assigned][index];
-				int varLength = tempVariables[peer].length();
 
-				// Only has one value in its domain
-				if (varLength == 1)
-					continue;
+			if (depth >= parent.splitDepth) {
+				if (solver.dfSearch(depth))
+					solution.compareAndSet(null, solver.variables.toArray());
+			} else if (solver.constraintProp()) {
+				if (solver.isSolved)
+					solution.compareAndSet(null, solver.variables.toArray());
+				else
+					invokeAll(split(solver));
+			}
+
+			synchronized (parent.rules) {
+				parent.rules.addCounts(solver.rules);
+				if (parent.stats != null)
+					parent.stats.add(solver.stats);
 
-				// Occurrence of empty domain, terminate propagation
-				if (varLength == 0) {
-					hasEmptyDomain = true;
-					return;
+				// The first task out of budget stops the others
+				if (solver.status == BUDGET_EXCEEDED
+						&& parent.status != BUDGET_EXCEEDED) {
+					parent.status = BUDGET_EXCEEDED;
+					System.arraycopy(solver.partialDomains, 0,
+							parent.partialDomains, 0, NUMBER_OF_BOXES);
+					parent.splitBudget.cancel();
 				}
+			}
+		}
 
-				// Not all peers have been assigned values
-				peersSolved = false;
-				solved = false;
+		/**
+		 * One task per value of the next variable, in the order dfSearch()
+		 * would try them.
+		 */
+		private List<SplitSearch> split(CSPSolver solver) {
+			int next = solver.variableOrdering.select(solver.variables,
+					PEERS_ALL);
+			int[] propagated = solver.variables.toArray();
+			List<SplitSearch> tasks = new ArrayList<SplitSearch>();
+			for (int rest = propagated[next]; rest != 0;) {
+				int nextValue = solver.valueOrdering.next(solver.variables,
+						PEERS_ALL, next, rest);
+				tasks.add(new SplitSearch(parent, propagated, next, nextValue,
+						depth + 1, solution));
+				rest &= ~Domains.bit(nextValue);
+			}
+			return tasks;
+		}
+	}
 
-				basicConstraints(ROW, peer, tempVariables);
-				basicConstraints(COLUMN, peer, tempVariables);
-				basicConstraints(REGION, peer, tempVariables);
-				// more (advanced) constraints...
+	/**
+	 * Propagate the constraints of all variables that have been assigned since
+	 * the last propagation (AC-3 style). Assigned variables are taken from the
+	 * worklist one at a time and their value is removed from their peers; a
+	 * peer that becomes assigned in turn is added to the worklist.
+	 * 
+	 * When the worklist is empty, the enabled inference rules (see
+	 * InferenceRules) are applied; if one of them reduces a domain,
+	 * propagation continues. Continue until neither the worklist nor the rules
+	 * lead to any further reduction, which indicates either that the puzzle
+	 * has been solved or that searching is necessary to complete it.
+	 * 
+	 * Also used by SolvingSession after every change it makes to the domains.
+	 * A pass that takes long is recorded as a PropagationEvent.
+	 * 
+	 * @return False if propagation led to an empty domain.
+	 */
+	boolean constraintProp() {
+		if (!PropagationEvent.TYPE.isEnabled())
+			return propagateConstraints();
 
-				if (!reduced && tempVariables[peer].length() < varLength)
-					reduced = true;
+		PropagationEvent event = new PropagationEvent();
+		event.begin();
+		boolean consistent = propagateConstraints();
+		event.complete(variables, consistent);
+		return consistent;
+	}
+
+	private boolean propagateConstraints() {
+		if (stats != null)
+			stats.propagations++;
+
+		while (true) {
+			while (!variables.isWorklistEmpty()) {
+				int index = variables.poll();
+
+				if (!basicConstraints(index)) {
+					// Occurrence of empty domain, terminate propagation
+					variables.clearWorklist();
+					return false;
+				}
 			}
-		}
 
-		// If all peers have been assigned values,
-		// check all boxes to see of the full puzzle has been solved
-		if (peersSolved) {
-			for (int index = 0; index < NUMBER_OF_BOXES; index++) {
-				if (tempVariables[index].length() == 1)
+			if (variables.isComplete())
+				break;
+
+			// Learned nogoods before the rules, they are cheaper
+			if (nogoods != null) {
+				int pruned = nogoods.apply(variables);
+				if (pruned == InferenceRule.CONTRADICTION) {
+					variables.clearWorklist();
+					return false;
+				}
+				if (pruned > 0) {
+					if (stats != null)
+						stats.eliminations += pruned;
 					continue;
+				}
+			}
 
-				// Not all puzzles have been solved
-				solved = false;
-				break;
+			// More (advanced) constraints, until none of them applies
+			int reduced = rules.apply(variables, UNITS);
+			if (reduced == InferenceRule.CONTRADICTION) {
+				variables.clearWorklist();
+				return false;
 			}
+			if (reduced == 0)
+				break;
+			if (stats != null)
+				stats.eliminations += reduced;
 		}
 
-		if (reduced)
-			constraintProp(tempVariables, assigned);
-		else
-			isSolved = solved;
+		isSolved = variables.isComplete();
+		return true;
 	}
 
 	/**
@@ -438,36 +952,91 @@ public class CSPSolver {
 	 * @return
 	 */
 	public String solution() {
-		String solution = "";
+		StringBuilder solution = new StringBuilder(SHOWN_LENGTH);
 
 		if (isSolved) {
-			solution += "Solution is shown below.\n";
+			solution.append("Solution is shown below.\n");
 		} else {
-			solution += "Not (yet) solved. See original puzzle below.\n";
+			solution.append("Not (yet) solved. See original puzzle below.\n");
 		}
 
 		for (int index = 0; index < NUMBER_OF_BOXES; index++) {
-			if (index == 0) {
-				solution += variables[index].length() > 1 ? "?"
-						: variables[index].length() < 1 ? "."
-								: variables[index];
-				continue;
-			}
-			if (index % NUMBER_OF_REGIONS_IN_ROW == 0) {
-				solution += "|";
-				if (index % NUMBER_OF_BOXES_IN_ROW == 0) {
-					solution += "\n";
-					if (index
-							% (NUMBER_OF_BOXES_IN_ROW * NUMBER_OF_REGIONS_IN_ROW) == 0) {
-						solution += "--- --- ---\n";
-					}
+			if (index > 0)
+				separate(solution, index);
+			solution.append(assignment(variables.get(index)));
+		}
+
+		return solution.append("|\n").toString();
+	}
+
+	/**
+	 * Append the separators shown before a variable: a bar between regions,
+	 * a new line between rows and a line between bands of regions.
+	 */
+	private static void separate(StringBuilder shown, int index) {
+		if (index % NUMBER_OF_REGIONS_IN_ROW == 0) {
+			shown.append('|');
+			if (index % NUMBER_OF_BOXES_IN_ROW == 0) {
+				shown.append('\n');
+				if (index % (NUMBER_OF_BOXES_IN_ROW * NUMBER_OF_REGIONS_IN_ROW) == 0) {
+					shown.append("--- --- ---\n");
 				}
 			}
-			solution += variables[index].length() > 1 ? "?" : variables[index]
-					.length() < 1 ? "." : variables[index];
 		}
+	}
+
+	@Override
+	public String getSolution() {
+		if (!isSolved)
+			return null;
+
+		char[] solution = new char[NUMBER_OF_BOXES];
+		for (int index = 0; index < NUMBER_OF_BOXES; index++)
+			solution[index] = assignment(variables.get(index));
+		return new String(solution);
+	}
 
-		return solution + "|\n";
+	@Override
+	public String getPartialSolution() {
+		if (status != BUDGET_EXCEEDED)
+			return null;
+		return puzzleOf(partialDomains);
+	}
+
+	/**
+	 * The domains as a puzzle: the value of every assigned variable, and '.'
+	 * for the others.
+	 */
+	private static String puzzleOf(int[] domains) {
+		char[] puzzle = new char[NUMBER_OF_BOXES];
+		for (int index = 0; index < NUMBER_OF_BOXES; index++) {
+			int domain = domains[index];
+			puzzle[index] = Domains.isSingle(domain) ? assignment(domain) : '.';
+		}
+		return new String(puzzle);
+	}
+
+	/**
+	 * The domains reached when the budget ran out, shown as by
+	 * getCurrentAssignments(), or null if the last search did not run out of
+	 * budget.
+	 */
+	public String getPartialAssignments() {
+		if (status != BUDGET_EXCEEDED)
+			return null;
+		return getCurrentAssignments(partialDomains);
+	}
+
+	/**
+	 * The character shown for a variable: its value if assigned, '?' if more
+	 * than one value is left and '.' if its domain is empty.
+	 */
+	private static char assignment(int domain) {
+		if (domain == 0)
+			return '.';
+		if (!Domains.isSingle(domain))
+			return '?';
+		return (char) ('0' + Domains.value(domain));
 	}
 
 	/**
@@ -475,27 +1044,16 @@ public class CSPSolver {
 	 * 
 	 * @return
 	 */
-	public String getCurrentAssignments(String[] tempVariables) {
-		String solution = "Current Assignments...\n";
+	public String getCurrentAssignments(int[] tempVariables) {
+		StringBuilder solution = new StringBuilder(4 * SHOWN_LENGTH);
+		solution.append("Current Assignments...\n");
 
 		for (int index = 0; index < NUMBER_OF_BOXES; index++) {
-			if (index == 0) {
-				solution += tempVariables[index] + " ";
-				continue;
-			}
-			if (index % NUMBER_OF_REGIONS_IN_ROW == 0) {
-				solution += "|";
-				if (index % NUMBER_OF_BOXES_IN_ROW == 0) {
-					solution += "\n";
-					if (index
-							% (NUMBER_OF_BOXES_IN_ROW * NUMBER_OF_REGIONS_IN_ROW) == 0) {
-						solution += "--- --- ---\n";
-					}
-				}
-			}
-			solution += tempVariables[index] + " ";
+			if (index > 0)
+				separate(solution, index);
+			solution.append(Domains.toString(tempVariables[index])).append(' ');
 		}
 
-		return solution + "|\n";
+		return solution.append("|\n").toString();
 	}
 }
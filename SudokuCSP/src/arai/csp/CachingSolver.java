@@ -0,0 +1,142 @@
+package arai.csp;
+
+/**
+ * Looks every puzzle up in a SolutionStore before solving it.
+ *
+ * The puzzle is brought into its canonical form first, so relabeled,
+ * transposed, rotated or band-permuted copies of a puzzle that was solved
+ * before are hits as well. On a miss, the canonical puzzle is solved by the
+ * wrapped solver and its solution stored. Either way the solution is mapped
+ * back to the orientation and digits of the puzzle that was passed in. A
+ * solve that runs out of budget is not stored.
+ *
+ * Like the solvers it wraps, a caching solver is meant for one thread; the
+ * store can be shared by the caching solvers of all threads (see factory()).
+ */
+public class CachingSolver implements SudokuSolver {
+
+	private final SudokuSolver solver;
+	private final SolutionStore store;
+	private final PuzzleCanonicalizer canonicalizer = new PuzzleCanonicalizer();
+
+	// The solution to the last puzzle, or null
+	private String solution = null;
+
+	// True if the last puzzle was found in the store
+	private boolean hit = false;
+
+	// The outcome of the last solve
+	private int status = UNSOLVABLE;
+
+	// Returned by getStats() after a hit: no search was needed
+	private final SearchStats noWork = new SearchStats();
+
+	/**
+	 * @param solver
+	 *            Solves the puzzles that are not in the store.
+	 * @param store
+	 *            The store to look the puzzles up in.
+	 */
+	public CachingSolver(SudokuSolver solver, SolutionStore store) {
+		this.solver = solver;
+		this.store = store;
+	}
+
+	/**
+	 * Creates caching solvers that wrap the solvers of the given factory and
+	 * share one store.
+	 */
+	public static SolverFactory factory(final SolverFactory factory,
+			final SolutionStore store) {
+		return new SolverFactory() {
+			@Override
+			public SudokuSolver newSolver() {
+				return new CachingSolver(factory.newSolver(), store);
+			}
+		};
+	}
+
+	public SolutionStore getStore() {
+		return store;
+	}
+
+	/**
+	 * True if the last puzzle was found in the store.
+	 */
+	public boolean isHit() {
+		return hit;
+	}
+
+	@Override
+	public boolean solve(CharSequence puzzle) {
+		String canonical = canonicalizer.canonicalize(puzzle);
+		String canonicalSolution = store.get(canonical);
+		hit = canonicalSolution != null;
+		if (!hit) {
+			canonicalSolution = solver.solve(canonical) ? solver.getSolution()
+					: SolutionStore.NO_SOLUTION;
+			status = solver.getStatus();
+			if (status == BUDGET_EXCEEDED) {
+				solution = null;
+				return false;
+			}
+			store.put(canonical, canonicalSolution);
+		}
+
+		if (canonicalSolution.equals(SolutionStore.NO_SOLUTION))
+			solution = null;
+		else
+			solution = canonicalizer.toOriginal(canonicalSolution);
+		status = solution != null ? SOLVED : UNSOLVABLE;
+		return solution != null;
+	}
+
+	/**
+	 * Counting is passed on to the wrapped solver; counts are not stored.
+	 */
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		hit = false;
+		int count = solver.countSolutions(puzzle, limit);
+		solution = solver.getSolution();
+		status = solver.getStatus();
+		return count;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * The partial solution of the wrapped solver, in the orientation of the
+	 * puzzle that was passed in.
+	 */
+	@Override
+	public String getPartialSolution() {
+		String partial = solver.getPartialSolution();
+		if (partial == null || status != BUDGET_EXCEEDED)
+			return null;
+		return hit ? partial : canonicalizer.toOriginal(partial);
+	}
+
+	@Override
+	public void setBudget(SearchBudget budget) {
+		solver.setBudget(budget);
+	}
+
+	@Override
+	public String getSolution() {
+		return solution;
+	}
+
+	/**
+	 * The work done by the wrapped solver for the last puzzle, or no work at
+	 * all if it was found in the store.
+	 */
+	@Override
+	public SearchStats getStats() {
+		SearchStats stats = solver.getStats();
+		return hit && stats != null ? noWork : stats;
+	}
+}
@@ -0,0 +1,347 @@
+package arai.csp;
+
+/**
+ * Solves Sudoku puzzles as an exact cover problem with Knuth's Algorithm X,
+ * using Dancing Links.
+ *
+ * The matrix has a row for every possible assignment (729: each box with
+ * each value) and a column for every constraint (324): each box holds a
+ * value, and each row, column and region holds each value exactly once.
+ *
+ * All nodes are kept in int arrays that are built once in the constructor.
+ * A solve covers the columns of the given values, searches, and uncovers
+ * everything again on the way out, so the matrix is back in its original
+ * state afterwards and solving allocates nothing but the returned solution.
+ */
+public class DancingLinksSolver implements SudokuSolver {
+
+	public static final int NUMBER_OF_VALUES = Domains.NUMBER_OF_VALUES;
+	public static final int NUMBER_OF_ROWS = CSPSolver.NUMBER_OF_BOXES
+			* NUMBER_OF_VALUES;
+	public static final int NUMBER_OF_COLUMNS = 4 * CSPSolver.NUMBER_OF_BOXES;
+
+	// Each matrix row covers one column of each constraint type
+	private static final int NODES_PER_ROW = 4;
+
+	// Column offsets of the four constraint types
+	private static final int BOX_COLUMNS = 0;
+	private static final int ROW_COLUMNS = CSPSolver.NUMBER_OF_BOXES;
+	private static final int CLM_COLUMNS = 2 * CSPSolver.NUMBER_OF_BOXES;
+	private static final int REG_COLUMNS = 3 * CSPSolver.NUMBER_OF_BOXES;
+
+	// Nodes 0 to NUMBER_OF_COLUMNS - 1 are the column headers, followed by the
+	// root and the nodes of the matrix rows
+	private static final int ROOT = NUMBER_OF_COLUMNS;
+	private static final int FIRST_ROW_NODE = ROOT + 1;
+	private static final int NUMBER_OF_NODES = FIRST_ROW_NODE + NUMBER_OF_ROWS
+			* NODES_PER_ROW;
+
+	private final int[] left = new int[NUMBER_OF_NODES];
+	private final int[] right = new int[NUMBER_OF_NODES];
+	private final int[] up = new int[NUMBER_OF_NODES];
+	private final int[] down = new int[NUMBER_OF_NODES];
+
+	// The column header of each node
+	private final int[] column = new int[NUMBER_OF_NODES];
+
+	// The number of nodes left in each column
+	private final int[] size = new int[NUMBER_OF_COLUMNS];
+
+	// The nodes of the selected matrix rows, one per box
+	private final int[] selected = new int[CSPSolver.NUMBER_OF_BOXES];
+	private int selectedCount = 0;
+
+	// The number of selected rows that belong to given values
+	private int givenCount = 0;
+
+	private final char[] solution = new char[CSPSolver.NUMBER_OF_BOXES];
+	private boolean isSolved = false;
+
+	// The search stops when this many solutions have been found
+	private int solutionLimit = 1;
+	private int solutionCount = 0;
+
+	// Limits the work per puzzle, or null
+	private SearchBudget budget = null;
+
+	// The outcome of the last solve, and the values selected when the
+	// budget ran out
+	private int status = UNSOLVABLE;
+	private final char[] partial = new char[CSPSolver.NUMBER_OF_BOXES];
+
+	// The work done for the last puzzle, or null if not counted
+	private SearchStats stats = new SearchStats();
+
+	public DancingLinksSolver() {
+		buildMatrix();
+	}
+
+	/**
+	 * Count the work done for every puzzle (the default) or not. Without
+	 * counting, getStats() returns null. Nodes are the matrix rows tried by
+	 * the search; there is no separate propagation.
+	 */
+	public void setStatsEnabled(boolean enabled) {
+		stats = enabled ? new SearchStats() : null;
+	}
+
+	@Override
+	public SearchStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public String getPartialSolution() {
+		return status == BUDGET_EXCEEDED ? new String(partial) : null;
+	}
+
+	/**
+	 * Link the column headers to the root and add the four nodes of each
+	 * matrix row to the bottom of their columns.
+	 */
+	private void buildMatrix() {
+		for (int c = 0; c <= ROOT; c++) {
+			left[c] = c == 0 ? ROOT : c - 1;
+			right[c] = c == ROOT ? 0 : c + 1;
+			up[c] = c;
+			down[c] = c;
+			column[c] = c;
+		}
+
+		int[] columns = new int[NODES_PER_ROW];
+		for (int row = 0; row < NUMBER_OF_ROWS; row++) {
+			int box = row / NUMBER_OF_VALUES;
+			int value = row % NUMBER_OF_VALUES;
+			int rowNo = box / CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+			int clmNo = box % CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+			int regNo = (rowNo / CSPSolver.NUMBER_OF_REGIONS_IN_CLM)
+					* CSPSolver.NUMBER_OF_REGIONS_IN_ROW + clmNo
+					/ CSPSolver.NUMBER_OF_REGIONS_IN_ROW;
+			columns[0] = BOX_COLUMNS + box;
+			columns[1] = ROW_COLUMNS + rowNo * NUMBER_OF_VALUES + value;
+			columns[2] = CLM_COLUMNS + clmNo * NUMBER_OF_VALUES + value;
+			columns[3] = REG_COLUMNS + regNo * NUMBER_OF_VALUES + value;
+
+			int first = FIRST_ROW_NODE + row * NODES_PER_ROW;
+			for (int k = 0; k < NODES_PER_ROW; k++) {
+				int node = first + k;
+				int c = columns[k];
+				column[node] = c;
+				left[node] = k == 0 ? first + NODES_PER_ROW - 1 : node - 1;
+				right[node] = k == NODES_PER_ROW - 1 ? first : node + 1;
+				up[node] = up[c];
+				down[node] = c;
+				down[up[c]] = node;
+				up[c] = node;
+				size[c]++;
+			}
+		}
+	}
+
+	/**
+	 * Used to find a solution for a Sudoku puzzle with Algorithm X.
+	 *
+	 * @param puzzle
+	 *            The Sudoku puzzle to be solved.
+	 * @return True if a solution was found.
+	 */
+	@Override
+	public boolean solve(CharSequence puzzle) {
+		return countSolutions(puzzle, 1) > 0;
+	}
+
+	/**
+	 * Count the solutions with Algorithm X; the search goes on after a
+	 * solution until the limit is reached. The first solution found is kept.
+	 */
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		SolveEvent event = null;
+		if (SolveEvent.TYPE.isEnabled()) {
+			event = new SolveEvent();
+			event.begin();
+		}
+		isSolved = false;
+		status = UNSOLVABLE;
+		solutionLimit = Math.max(1, limit);
+		solutionCount = 0;
+		selectedCount = 0;
+		if (stats != null)
+			stats.reset();
+		if (budget != null)
+			budget.start();
+
+		// Select the matrix rows of the given values; two givens that share
+		// a constraint make the puzzle unsolvable
+		boolean consistent = true;
+		for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES && consistent; box++) {
+			char c = puzzle.charAt(box);
+			if (c < '1' || c > '9')
+				continue;
+			int node = FIRST_ROW_NODE + (box * NUMBER_OF_VALUES + c - '1')
+					* NODES_PER_ROW;
+			consistent = isAvailable(node);
+			if (consistent) {
+				selectRow(node);
+				selected[selectedCount++] = node;
+			}
+		}
+
+		givenCount = selectedCount;
+		if (consistent)
+			search(selectedCount);
+
+		// Restore the matrix for the next puzzle
+		while (selectedCount > 0)
+			unselectRow(selected[--selectedCount]);
+
+		isSolved = solutionCount > 0;
+		if (status != BUDGET_EXCEEDED)
+			status = isSolved ? SOLVED : UNSOLVABLE;
+		if (event != null)
+			event.complete(puzzle, "dlx", status, solutionCount, stats);
+		return solutionCount;
+	}
+
+	/**
+	 * Algorithm X: choose the column with the fewest nodes and try each of its
+	 * rows in turn. Everything covered below is uncovered again before
+	 * returning, also when a solution was found.
+	 *
+	 * @param depth
+	 *            The number of selected rows.
+	 * @return True if the search should stop: the solution limit was reached
+	 *         or the budget ran out.
+	 */
+	private boolean search(int depth) {
+		if (stats != null)
+			stats.depth(depth - givenCount);
+
+		if (budget != null && budget.step()) {
+			if (status != BUDGET_EXCEEDED) {
+				status = BUDGET_EXCEEDED;
+				for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES; box++)
+					partial[box] = '.';
+				for (int i = 0; i < depth; i++) {
+					int row = (selected[i] - FIRST_ROW_NODE) / NODES_PER_ROW;
+					partial[row / NUMBER_OF_VALUES] = (char) ('1' + row
+							% NUMBER_OF_VALUES);
+				}
+			}
+			return true;
+		}
+
+		if (right[ROOT] == ROOT) {
+			// All constraints are covered, copy the first solution
+			if (solutionCount == 0) {
+				for (int i = 0; i < depth; i++) {
+					int row = (selected[i] - FIRST_ROW_NODE) / NODES_PER_ROW;
+					solution[row / NUMBER_OF_VALUES] = (char) ('1' + row
+							% NUMBER_OF_VALUES);
+				}
+			}
+			solutionCount++;
+			return solutionCount >= solutionLimit;
+		}
+
+		int c = right[ROOT];
+		for (int j = right[c]; j != ROOT; j = right[j])
+			if (size[j] < size[c])
+				c = j;
+		if (size[c] == 0)
+			return false;
+
+		boolean found = false;
+		cover(c);
+		for (int r = down[c]; r != c && !found; r = down[r]) {
+			selected[depth] = r;
+			for (int j = right[r]; j != r; j = right[j])
+				cover(column[j]);
+			if (stats != null)
+				stats.nodes++;
+			found = search(depth + 1);
+			for (int j = left[r]; j != r; j = left[j])
+				uncover(column[j]);
+			if (!found && stats != null)
+				stats.backtracks++;
+		}
+		uncover(c);
+		return found;
+	}
+
+	/**
+	 * True if none of the columns of the row has been covered yet.
+	 */
+	private boolean isAvailable(int node) {
+		int j = node;
+		do {
+			int c = column[j];
+			if (right[left[c]] != c)
+				return false;
+			j = right[j];
+		} while (j != node);
+		return true;
+	}
+
+	private void selectRow(int node) {
+		int j = node;
+		do {
+			cover(column[j]);
+			j = right[j];
+		} while (j != node);
+	}
+
+	private void unselectRow(int node) {
+		int j = node;
+		do {
+			j = left[j];
+			uncover(column[j]);
+		} while (j != node);
+	}
+
+	/**
+	 * Remove the column from the header list and all rows in it from the
+	 * other columns.
+	 */
+	private void cover(int c) {
+		right[left[c]] = right[c];
+		left[right[c]] = left[c];
+		for (int i = down[c]; i != c; i = down[i]) {
+			for (int j = right[i]; j != i; j = right[j]) {
+				down[up[j]] = down[j];
+				up[down[j]] = up[j];
+				size[column[j]]--;
+			}
+		}
+	}
+
+	/**
+	 * Exact reverse of cover().
+	 */
+	private void uncover(int c) {
+		for (int i = up[c]; i != c; i = up[i]) {
+			for (int j = left[i]; j != i; j = left[j]) {
+				size[column[j]]++;
+				down[up[j]] = j;
+				up[down[j]] = j;
+			}
+		}
+		right[left[c]] = c;
+		left[right[c]] = c;
+	}
+
+	@Override
+	public String getSolution() {
+		return isSolved ? new String(solution) : null;
+	}
+}
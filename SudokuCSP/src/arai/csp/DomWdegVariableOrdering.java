@@ -0,0 +1,84 @@
+package arai.csp;
+
+/**
+ * Domain over weighted degree (dom/wdeg): every unit (row, column, region)
+ * has a weight, starting at 1, that is increased each time propagation along
+ * it empties a domain. The variable with the smallest ratio of domain size to
+ * the summed weights of its units is chosen, so the search turns to the parts
+ * of the puzzle where it failed before.
+ *
+ * The weights are learned during one puzzle and reset for the next. The
+ * variables are visited through the size buckets of the DomainStore, smallest
+ * domains first; larger domains are skipped as soon as even the largest
+ * weight a variable can have would not beat the best ratio found.
+ */
+public class DomWdegVariableOrdering implements VariableOrdering {
+
+	private final int[] weights = new int[DomainStore.NUMBER_OF_UNITS];
+
+	// The largest weight of any unit
+	private int maxWeight = 1;
+
+	public DomWdegVariableOrdering() {
+		reset();
+	}
+
+	@Override
+	public String getName() {
+		return Orderings.DOM_WDEG;
+	}
+
+	@Override
+	public int select(DomainStore variables, int[][] peersAll) {
+		int best = -1;
+		int bestSize = 0;
+		int bestWeight = 0;
+		for (int size = variables.smallestOpenSize(); size >= 2
+				&& size <= Domains.NUMBER_OF_VALUES; size++) {
+			// size / (3 * maxWeight) >= bestSize / bestWeight: no variable
+			// of this size or larger can be better
+			if (best >= 0 && size * bestWeight >= bestSize * 3 * maxWeight)
+				break;
+			for (int index = variables.nextOfSize(size, 0); index >= 0; index = variables
+					.nextOfSize(size, index + 1)) {
+				int weight = weights[DomainStore.rowUnit(index)]
+						+ weights[DomainStore.columnUnit(index)]
+						+ weights[DomainStore.regionUnit(index)];
+				// size / weight < bestSize / bestWeight
+				if (best < 0 || size * bestWeight < bestSize * weight) {
+					best = index;
+					bestSize = size;
+					bestWeight = weight;
+				}
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public void conflict(int index, int peer) {
+		if (DomainStore.rowUnit(index) == DomainStore.rowUnit(peer))
+			increase(DomainStore.rowUnit(index));
+		if (DomainStore.columnUnit(index) == DomainStore.columnUnit(peer))
+			increase(DomainStore.columnUnit(index));
+		if (DomainStore.regionUnit(index) == DomainStore.regionUnit(peer))
+			increase(DomainStore.regionUnit(index));
+	}
+
+	private void increase(int unit) {
+		weights[unit]++;
+		maxWeight = Math.max(maxWeight, weights[unit]);
+	}
+
+	@Override
+	public void reset() {
+		for (int unit = 0; unit < weights.length; unit++)
+			weights[unit] = 1;
+		maxWeight = 1;
+	}
+
+	@Override
+	public VariableOrdering copy() {
+		return new DomWdegVariableOrdering();
+	}
+}
@@ -0,0 +1,485 @@
+package arai.csp;
+
+/**
+ * The domains of all variables (as 9-bit masks, see Domains) together with a
+ * trail (undo stack) of every change made to them.
+ *
+ * The search saves a mark before trying a value and undoes back to that mark
+ * when it backtracks, so no copy of the board is made per search node. Along
+ * one search path a domain can only shrink, which means a variable is changed
+ * at most 9 times and the trail never needs more than NUMBER_OF_BOXES * 9
+ * entries, however deep the search goes.
+ *
+ * Variables that become assigned (a domain of size 1) are also put on a
+ * worklist, so propagation only has to visit the peers of those variables.
+ * A variable can only become assigned once along a search path, so the
+ * worklist never holds more than NUMBER_OF_BOXES entries.
+ *
+ * For the variable and value orderings (see VariableOrdering and
+ * ValueOrdering), the store also keeps track, with every change and undo, of
+ * the variables of each domain size (as bitsets), the number of variables in
+ * each unit that still have each value, and the number of variables assigned
+ * each value. Choosing the variable with the smallest domain then takes a few
+ * bit operations instead of a scan over all variables.
+ *
+ * For backjumping (see CSPSolver.setBackjumping()), the store can also
+ * explain its domains (see setExplaining()): every removed value is recorded
+ * with its reason, the set of search levels whose decisions caused the
+ * removal, as a bitset (see levelBit()). Changes are recorded with the reason
+ * given to because() beforehand; rules that give no reason of their own get
+ * all levels searched so far (see explainByLevels()), which is always right
+ * but does not allow a jump.
+ */
+public class DomainStore {
+
+	public static final int TRAIL_CAPACITY = CSPSolver.NUMBER_OF_BOXES
+			* Domains.NUMBER_OF_VALUES;
+
+	// Units are numbered rows first (0-8), then columns (9-17), then regions
+	// (18-26)
+	public static final int NUMBER_OF_UNITS = 3 * CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+
+	// The units of each variable
+	private static final int[] ROW_UNIT = new int[CSPSolver.NUMBER_OF_BOXES];
+	private static final int[] COLUMN_UNIT = new int[CSPSolver.NUMBER_OF_BOXES];
+	private static final int[] REGION_UNIT = new int[CSPSolver.NUMBER_OF_BOXES];
+
+	static {
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			ROW_UNIT[index] = InferenceRule.row(index);
+			COLUMN_UNIT[index] = CSPSolver.NUMBER_OF_BOXES_IN_ROW
+					+ InferenceRule.column(index);
+			REGION_UNIT[index] = 2 * CSPSolver.NUMBER_OF_BOXES_IN_ROW
+					+ InferenceRule.region(index);
+		}
+	}
+
+	// The current domain of each variable
+	private final int[] domains = new int[CSPSolver.NUMBER_OF_BOXES];
+
+	// The variable and its previous domain for each change, in order
+	private final int[] trailIndex = new int[TRAIL_CAPACITY];
+	private final int[] trailDomain = new int[TRAIL_CAPACITY];
+	private int trailSize = 0;
+
+	// Variables assigned since they were last taken from the worklist
+	private final int[] worklist = new int[CSPSolver.NUMBER_OF_BOXES];
+	private int worklistHead = 0;
+	private int worklistTail = 0;
+
+	// The number of variables with a domain of size 1
+	private int assignedCount = 0;
+
+	// The variables of each domain size (0-9) as a bitset: bits 0-63 of the
+	// variable indexes in the low word, 64-80 in the high word
+	private final long[] sizeLow = new long[Domains.NUMBER_OF_VALUES + 1];
+	private final long[] sizeHigh = new long[Domains.NUMBER_OF_VALUES + 1];
+
+	// The number of variables in each unit with each value in their domain,
+	// at [unit * NUMBER_OF_VALUES + value - 1]
+	private final int[] unitCounts = new int[NUMBER_OF_UNITS
+			* Domains.NUMBER_OF_VALUES];
+
+	// The number of assigned variables with each value (index value - 1)
+	private final int[] valueCounts = new int[Domains.NUMBER_OF_VALUES];
+
+	// Levels 63 and deeper share the last bit of a reason
+	public static final int DEEPEST_LEVEL = 63;
+
+	// True if the reasons for removed values are recorded
+	private boolean explaining = false;
+
+	// The reason each value was removed from each variable, at [index *
+	// NUMBER_OF_VALUES + value - 1]; only meaningful for removed values
+	private final long[] reasons = new long[CSPSolver.NUMBER_OF_BOXES
+			* Domains.NUMBER_OF_VALUES];
+
+	// The search level and the reason recorded with the next changes
+	private int level = 0;
+	private long reason = 0;
+
+	// The reason of the last contradiction
+	private long conflict = 0;
+
+	/**
+	 * Set the domains from the given puzzle and clear the trail. All given
+	 * values are put on the worklist.
+	 *
+	 * @param puzzle
+	 *            The Sudoku puzzle, unassigned variables are denoted with a
+	 *            point ('.').
+	 */
+	public void init(CharSequence puzzle) {
+		trailSize = 0;
+		worklistHead = 0;
+		worklistTail = 0;
+		assignedCount = 0;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			domains[index] = Domains.parse(puzzle.charAt(index));
+			if (Domains.isSingle(domains[index])) {
+				assignedCount++;
+				worklist[worklistTail++] = index;
+			}
+		}
+		countAll();
+		clearReasons();
+	}
+
+	/**
+	 * Set the domains from a copy of another store (see toArray()) and clear
+	 * the trail. Assigned variables are not put on the worklist; they are
+	 * expected to have been propagated already.
+	 */
+	public void load(int[] domains) {
+		trailSize = 0;
+		worklistHead = 0;
+		worklistTail = 0;
+		assignedCount = 0;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			this.domains[index] = domains[index];
+			if (Domains.isSingle(domains[index]))
+				assignedCount++;
+		}
+		countAll();
+		clearReasons();
+	}
+
+	/**
+	 * Recompute the size buckets and counts from the domains.
+	 */
+	private void countAll() {
+		for (int size = 0; size <= Domains.NUMBER_OF_VALUES; size++) {
+			sizeLow[size] = 0;
+			sizeHigh[size] = 0;
+		}
+		for (int i = 0; i < unitCounts.length; i++)
+			unitCounts[i] = 0;
+		for (int i = 0; i < valueCounts.length; i++)
+			valueCounts[i] = 0;
+
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int domain = domains[index];
+			addToSize(index, Domains.size(domain));
+			count(index, domain, 1);
+			if (Domains.isSingle(domain))
+				valueCounts[Domains.value(domain) - 1]++;
+		}
+	}
+
+	/**
+	 * Update the size buckets and counts for a variable whose domain changed.
+	 */
+	private void changed(int index, int previous, int domain) {
+		int previousSize = Domains.size(previous);
+		int size = Domains.size(domain);
+		removeFromSize(index, previousSize);
+		addToSize(index, size);
+
+		count(index, previous & ~domain, -1);
+		count(index, domain & ~previous, 1);
+
+		if (previousSize == 1)
+			valueCounts[Domains.value(previous) - 1]--;
+		if (size == 1)
+			valueCounts[Domains.value(domain) - 1]++;
+	}
+
+	/**
+	 * Add the change to the unit counts of all values in the mask.
+	 */
+	private void count(int index, int values, int change) {
+		int row = ROW_UNIT[index] * Domains.NUMBER_OF_VALUES - 1;
+		int column = COLUMN_UNIT[index] * Domains.NUMBER_OF_VALUES - 1;
+		int region = REGION_UNIT[index] * Domains.NUMBER_OF_VALUES - 1;
+		for (int rest = values; rest != 0; rest &= rest - 1) {
+			int value = Domains.value(rest);
+			unitCounts[row + value] += change;
+			unitCounts[column + value] += change;
+			unitCounts[region + value] += change;
+		}
+	}
+
+	private void addToSize(int index, int size) {
+		if (index < 64)
+			sizeLow[size] |= 1L << index;
+		else
+			sizeHigh[size] |= 1L << (index - 64);
+	}
+
+	private void removeFromSize(int index, int size) {
+		if (index < 64)
+			sizeLow[size] &= ~(1L << index);
+		else
+			sizeHigh[size] &= ~(1L << (index - 64));
+	}
+
+	public int get(int index) {
+		return domains[index];
+	}
+
+	/**
+	 * Change the domain of a variable and record its previous domain on the
+	 * trail. The new domain must be a subset of the current one. If the
+	 * variable becomes assigned it is put on the worklist.
+	 *
+	 * @param index
+	 *            The index of the variable.
+	 * @param domain
+	 *            The new domain.
+	 */
+	public void set(int index, int domain) {
+		int previous = domains[index];
+		if (previous == domain)
+			return;
+		trailIndex[trailSize] = index;
+		trailDomain[trailSize] = previous;
+		trailSize++;
+		domains[index] = domain;
+		changed(index, previous, domain);
+		if (explaining) {
+			int offset = index * Domains.NUMBER_OF_VALUES - 1;
+			for (int rest = previous & ~domain; rest != 0; rest &= rest - 1)
+				reasons[offset + Domains.value(rest)] = reason;
+		}
+		if (Domains.isSingle(domain)) {
+			assignedCount++;
+			worklist[worklistTail++] = index;
+		}
+	}
+
+	/**
+	 * True if no assigned variables are waiting on the worklist.
+	 */
+	public boolean isWorklistEmpty() {
+		return worklistHead == worklistTail;
+	}
+
+	/**
+	 * Take the next assigned variable from the worklist.
+	 */
+	public int poll() {
+		int index = worklist[worklistHead++];
+		if (worklistHead == worklistTail) {
+			worklistHead = 0;
+			worklistTail = 0;
+		}
+		return index;
+	}
+
+	/**
+	 * Empty the worklist, e.g. after propagation ran into an empty domain.
+	 */
+	public void clearWorklist() {
+		worklistHead = 0;
+		worklistTail = 0;
+	}
+
+	/**
+	 * True if all variables have a domain of size 1.
+	 */
+	public boolean isComplete() {
+		return assignedCount == CSPSolver.NUMBER_OF_BOXES;
+	}
+
+	/**
+	 * The current position on the trail, to be passed to undo() later.
+	 */
+	public int mark() {
+		return trailSize;
+	}
+
+	/**
+	 * Restore all domains to the state they had when the mark was taken.
+	 */
+	public void undo(int mark) {
+		while (trailSize > mark) {
+			trailSize--;
+			int index = trailIndex[trailSize];
+			int domain = domains[index];
+			if (Domains.isSingle(domain))
+				assignedCount--;
+			domains[index] = trailDomain[trailSize];
+			changed(index, domain, domains[index]);
+		}
+		clearWorklist();
+	}
+
+	/**
+	 * The smallest domain size above 1 that any variable has, or 0 if all
+	 * variables are assigned (or have an empty domain).
+	 */
+	public int smallestOpenSize() {
+		for (int size = 2; size <= Domains.NUMBER_OF_VALUES; size++)
+			if ((sizeLow[size] | sizeHigh[size]) != 0)
+				return size;
+		return 0;
+	}
+
+	/**
+	 * The first variable from the given index on with a domain of the given
+	 * size, or -1 if there is none.
+	 */
+	public int nextOfSize(int size, int from) {
+		if (from < 64) {
+			long low = sizeLow[size] & (-1L << from);
+			if (low != 0)
+				return Long.numberOfTrailingZeros(low);
+			from = 64;
+		}
+		if (from >= CSPSolver.NUMBER_OF_BOXES)
+			return -1;
+		long high = sizeHigh[size] & (-1L << (from - 64));
+		return high == 0 ? -1 : 64 + Long.numberOfTrailingZeros(high);
+	}
+
+	/**
+	 * The number of variables in the unit (see NUMBER_OF_UNITS) with the
+	 * value in their domain.
+	 */
+	public int unitCount(int unit, int value) {
+		return unitCounts[unit * Domains.NUMBER_OF_VALUES + value - 1];
+	}
+
+	/**
+	 * The values that exactly the given number of variables in the unit have
+	 * in their domain, as a mask; e.g. with 1 the values that can only go in
+	 * one variable.
+	 */
+	public int valuesWithCount(int unit, int count) {
+		int offset = unit * Domains.NUMBER_OF_VALUES - 1;
+		int values = 0;
+		for (int value = 1; value <= Domains.NUMBER_OF_VALUES; value++)
+			if (unitCounts[offset + value] == count)
+				values |= Domains.bit(value);
+		return values;
+	}
+
+	/**
+	 * The number of variables assigned the value.
+	 */
+	public int valueCount(int value) {
+		return valueCounts[value - 1];
+	}
+
+	/**
+	 * Record the reasons for removed values from now on, or not (the
+	 * default).
+	 */
+	public void setExplaining(boolean explaining) {
+		this.explaining = explaining;
+	}
+
+	public boolean isExplaining() {
+		return explaining;
+	}
+
+	/**
+	 * The domains are given (level 0) from here on: removed values have no
+	 * reason.
+	 */
+	private void clearReasons() {
+		level = 0;
+		reason = 0;
+		conflict = 0;
+		if (explaining)
+			for (int i = 0; i < reasons.length; i++)
+				reasons[i] = 0;
+	}
+
+	/**
+	 * The reason bit of a search level (1 and deeper).
+	 */
+	public static long levelBit(int level) {
+		return 1L << Math.min(level, DEEPEST_LEVEL);
+	}
+
+	/**
+	 * The reason of all levels from 1 up to the given one.
+	 */
+	public static long levelsUpTo(int level) {
+		return level >= DEEPEST_LEVEL ? -1L << 1 : (1L << (level + 1)) - 2;
+	}
+
+	/**
+	 * The deepest level in a reason, or 0 for none.
+	 */
+	public static int deepestLevel(long reason) {
+		return 63 - Long.numberOfLeadingZeros(reason);
+	}
+
+	/**
+	 * Set the search level the following changes are made at.
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Give the reason for the following changes.
+	 */
+	public void because(long reason) {
+		this.reason = reason;
+	}
+
+	/**
+	 * Give the reason for a contradiction that was found.
+	 */
+	public void conflict(long reason) {
+		this.conflict = reason;
+	}
+
+	/**
+	 * The reason of the last contradiction.
+	 */
+	public long getConflict() {
+		return conflict;
+	}
+
+	/**
+	 * Blame the following changes and contradictions on all levels up to the
+	 * current one.
+	 */
+	public void explainByLevels() {
+		reason = levelsUpTo(level);
+		conflict = reason;
+	}
+
+	/**
+	 * The combined reasons why the given values (a mask of removed values)
+	 * were removed from the variable.
+	 */
+	public long reasonOf(int index, int values) {
+		long reason = 0;
+		int offset = index * Domains.NUMBER_OF_VALUES - 1;
+		for (int rest = values; rest != 0; rest &= rest - 1)
+			reason |= reasons[offset + Domains.value(rest)];
+		return reason;
+	}
+
+	/**
+	 * The reason the variable has its current domain: the reasons of all
+	 * values removed from it.
+	 */
+	public long reasonOf(int index) {
+		return reasonOf(index, Domains.FULL & ~domains[index]);
+	}
+
+	public static int rowUnit(int index) {
+		return ROW_UNIT[index];
+	}
+
+	public static int columnUnit(int index) {
+		return COLUMN_UNIT[index];
+	}
+
+	public static int regionUnit(int index) {
+		return REGION_UNIT[index];
+	}
+
+	/**
+	 * A copy of the current domains.
+	 */
+	public int[] toArray() {
+		return domains.clone();
+	}
+}
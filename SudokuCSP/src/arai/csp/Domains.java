@@ -0,0 +1,79 @@
+package arai.csp;
+
+/**
+ * Helper methods for variable domains stored as 9-bit masks.
+ *
+ * Bit (value - 1) is set if the value is still possible for a variable, so the
+ * full domain "123456789" is 0x1FF, an assigned variable has exactly one bit
+ * set and an empty domain is 0.
+ */
+public final class Domains {
+
+	public static final int NUMBER_OF_VALUES = 9;
+
+	// Domain of an unassigned variable ("123456789")
+	public static final int FULL = (1 << NUMBER_OF_VALUES) - 1;
+
+	private Domains() {
+	}
+
+	/**
+	 * The single-bit mask for the given value (1-9).
+	 */
+	public static int bit(int value) {
+		return 1 << (value - 1);
+	}
+
+	/**
+	 * The value (1-9) represented by the lowest bit of the given mask.
+	 */
+	public static int value(int mask) {
+		return Integer.numberOfTrailingZeros(mask) + 1;
+	}
+
+	/**
+	 * The number of values left in the domain.
+	 */
+	public static int size(int domain) {
+		return Integer.bitCount(domain);
+	}
+
+	/**
+	 * True if exactly one value is left in the domain (the variable is
+	 * assigned).
+	 */
+	public static boolean isSingle(int domain) {
+		return domain != 0 && (domain & (domain - 1)) == 0;
+	}
+
+	/**
+	 * The lowest bit of the domain, or 0 if the domain is empty.
+	 */
+	public static int lowest(int domain) {
+		return domain & -domain;
+	}
+
+	public static boolean contains(int domain, int value) {
+		return (domain & bit(value)) != 0;
+	}
+
+	/**
+	 * Parse a single puzzle character. A point ('.') (or any other
+	 * non-digit) denotes an unassigned variable.
+	 */
+	public static int parse(char c) {
+		if (c >= '1' && c <= '9')
+			return bit(c - '0');
+		return FULL;
+	}
+
+	/**
+	 * The digits left in the domain in ascending order, e.g. "1479".
+	 */
+	public static String toString(int domain) {
+		StringBuilder sb = new StringBuilder(NUMBER_OF_VALUES);
+		for (int rest = domain; rest != 0; rest &= rest - 1)
+			sb.append((char) ('0' + value(rest)));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,60 @@
+package arai.csp;
+
+/**
+ * If a value can only go in one variable of a unit, that variable must be
+ * assigned the value.
+ */
+public class HiddenSingleRule extends InferenceRule {
+
+	public HiddenSingleRule() {
+		super(InferenceRules.HIDDEN_SINGLE);
+	}
+
+	@Override
+	public int apply(DomainStore variables, int[][][] units) {
+		int fired = 0;
+		for (int type = CSPSolver.ROW; type <= CSPSolver.REGION; type++) {
+			for (int[] unit : units[type]) {
+				// The unit counts of the store tell which values fit in no
+				// variable of the unit and which in one only
+				int unitNumber = type == CSPSolver.ROW ? DomainStore
+						.rowUnit(unit[0])
+						: type == CSPSolver.COLUMN ? DomainStore
+								.columnUnit(unit[0]) : DomainStore
+								.regionUnit(unit[0]);
+
+				// A value that fits nowhere in the unit
+				int nowhere = variables.valuesWithCount(unitNumber, 0);
+				if (nowhere != 0) {
+					if (variables.isExplaining())
+						variables.conflict(reasonInUnit(variables, unit, -1,
+								nowhere));
+					return CONTRADICTION;
+				}
+
+				int hidden = variables.valuesWithCount(unitNumber, 1);
+				if (hidden == 0)
+					continue;
+
+				for (int index : unit) {
+					int domain = variables.get(index);
+					int values = domain & hidden;
+					if (values == 0 || values == domain)
+						continue;
+					// The other variables of the unit lost the value(s)
+					if (variables.isExplaining()) {
+						long reason = reasonInUnit(variables, unit, index, values);
+						variables.because(reason);
+						variables.conflict(reason);
+					}
+					// Two values that can only go in this variable
+					if (!Domains.isSingle(values))
+						return CONTRADICTION;
+					variables.set(index, values);
+					fired++;
+				}
+			}
+		}
+		return fired;
+	}
+}
@@ -0,0 +1,121 @@
+package arai.csp;
+
+/**
+ * If N values of a unit can only go in the same N variables (a hidden pair
+ * or triple), those variables can't hold any other value, so all other values
+ * are removed from their domains.
+ */
+public class HiddenSubsetRule extends InferenceRule {
+
+	private final int size;
+
+	// For each value, the positions (0-8) in the unit where it can go, and
+	// the values that can be part of a subset
+	private final int[] positions = new int[Domains.NUMBER_OF_VALUES];
+	private final int[] candidates = new int[Domains.NUMBER_OF_VALUES];
+
+	/**
+	 * @param size
+	 *            The number of values in the subset (2 for pairs, 3 for
+	 *            triples).
+	 */
+	public HiddenSubsetRule(String name, int size) {
+		super(name);
+		this.size = size;
+	}
+
+	@Override
+	public InferenceRule copy() {
+		return new HiddenSubsetRule(getName(), size);
+	}
+
+	@Override
+	public int apply(DomainStore variables, int[][][] units) {
+		int fired = 0;
+		for (int[][] unitsOfType : units) {
+			for (int[] unit : unitsOfType) {
+				for (int value = 0; value < Domains.NUMBER_OF_VALUES; value++)
+					positions[value] = 0;
+				for (int position = 0; position < unit.length; position++) {
+					int domain = variables.get(unit[position]);
+					for (int rest = domain; rest != 0; rest &= rest - 1)
+						positions[Domains.value(rest) - 1] |= 1 << position;
+				}
+
+				// Only values that are not yet placed and fit in few enough
+				// variables can be part of a subset
+				int count = 0;
+				for (int value = 0; value < Domains.NUMBER_OF_VALUES; value++) {
+					int positionCount = Domains.size(positions[value]);
+					if (positionCount == 0)
+						return CONTRADICTION;
+					if (positionCount > 1 && positionCount <= size)
+						candidates[count++] = value;
+				}
+				if (count < size)
+					continue;
+
+				int result = findSubsets(variables, unit, positions,
+						candidates, count, 0, 0, 0, 0);
+				if (result == CONTRADICTION)
+					return CONTRADICTION;
+				fired += result;
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * Try all combinations of candidate values recursively and apply every
+	 * subset that is found.
+	 * 
+	 * @param start
+	 *            The first candidate that may still be added.
+	 * @param depth
+	 *            The number of values in the combination so far.
+	 * @param values
+	 *            The values in the combination so far (as a domain mask).
+	 * @param cells
+	 *            The union of the positions of these values.
+	 */
+	private int findSubsets(DomainStore variables, int[] unit,
+			int[] positions, int[] candidates, int count, int start,
+			int depth, int values, int cells) {
+		if (Integer.bitCount(cells) > size)
+			return 0;
+		// More values than variables left for them
+		if (depth > Integer.bitCount(cells) && depth > 0)
+			return CONTRADICTION;
+		if (depth == size)
+			return keepOnly(variables, unit, values, cells);
+
+		int fired = 0;
+		for (int i = start; i < count; i++) {
+			int value = candidates[i];
+			int result = findSubsets(variables, unit, positions, candidates,
+					count, i + 1, depth + 1, values | (1 << value), cells
+							| positions[value]);
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+
+	/**
+	 * Remove all values except those of the subset from the variables at the
+	 * given positions in the unit.
+	 */
+	private int keepOnly(DomainStore variables, int[] unit, int values,
+			int cells) {
+		int fired = 0;
+		for (int rest = cells; rest != 0; rest &= rest - 1) {
+			int index = unit[Integer.numberOfTrailingZeros(rest)];
+			int result = eliminate(variables, index, ~values & Domains.FULL);
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+}
@@ -0,0 +1,43 @@
+package arai.csp;
+
+/**
+ * A value for one box, suggested by SolvingSession.nextHint().
+ */
+public class Hint {
+
+	private final int cell;
+	private final int value;
+	private final boolean forced;
+
+	public Hint(int cell, int value, boolean forced) {
+		this.cell = cell;
+		this.value = value;
+		this.forced = forced;
+	}
+
+	/**
+	 * The index of the box (0-80, in row order).
+	 */
+	public int getCell() {
+		return cell;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * True if the value follows from the entries by propagation alone, false
+	 * if it was taken from a solution found by searching.
+	 */
+	public boolean isForced() {
+		return forced;
+	}
+
+	@Override
+	public String toString() {
+		return "r" + (cell / CSPSolver.NUMBER_OF_BOXES_IN_ROW + 1) + "c"
+				+ (cell % CSPSolver.NUMBER_OF_BOXES_IN_ROW + 1) + "=" + value
+				+ (forced ? " (forced)" : " (searched)");
+	}
+}
@@ -0,0 +1,102 @@
+package arai.csp;
+
+/**
+ * An inference rule that is applied during constraint propagation, on top of
+ * the basic elimination of assigned values from their peers.
+ *
+ * A rule looks at the units (rows, columns and regions) of the puzzle and
+ * reduces domains where it can. All reductions go through the DomainStore, so
+ * they are undone when the search backtracks and variables that become
+ * assigned are put on the worklist.
+ *
+ * When the store explains its domains (see DomainStore.setExplaining()), a
+ * rule may give the precise reasons for its reductions and contradictions;
+ * otherwise they are blamed on all levels of the search so far.
+ *
+ * A rule is used by one solver at a time. Rules without state are shared by
+ * the copies of a set of rules (see InferenceRules.copy()); a rule with
+ * scratch arrays gives every copy an instance of its own (see copy()).
+ */
+public abstract class InferenceRule {
+
+	// Returned by apply() if a unit can no longer be completed
+	public static final int CONTRADICTION = -1;
+
+	private final String name;
+
+	protected InferenceRule(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The rule for another solver, which may run on another thread: the rule
+	 * itself if it holds no state.
+	 */
+	public InferenceRule copy() {
+		return this;
+	}
+
+	/**
+	 * Apply the rule once to all units of the puzzle.
+	 * 
+	 * @param variables
+	 *            The current domains.
+	 * @param units
+	 *            The variables of each unit, indexed by ROW, COLUMN or REGION
+	 *            and the number of the unit (0-8).
+	 * @return The number of domains that were reduced, or CONTRADICTION.
+	 */
+	public abstract int apply(DomainStore variables, int[][][] units);
+
+	/**
+	 * Remove the given values from the domain of a variable.
+	 * 
+	 * @return 1 if the domain was reduced, 0 if it did not contain any of the
+	 *         values and CONTRADICTION if it would become empty.
+	 */
+	protected static int eliminate(DomainStore variables, int index,
+			int values) {
+		int domain = variables.get(index);
+		if ((domain & values) == 0)
+			return 0;
+		domain &= ~values;
+		if (domain == 0)
+			return CONTRADICTION;
+		variables.set(index, domain);
+		return 1;
+	}
+
+	/**
+	 * The combined reasons why the given values were removed from the
+	 * variables of a unit.
+	 * 
+	 * @param except
+	 *            A variable of the unit to skip, or -1.
+	 */
+	protected static long reasonInUnit(DomainStore variables, int[] unit,
+			int except, int values) {
+		long reason = 0;
+		for (int index : unit)
+			if (index != except)
+				reason |= variables.reasonOf(index, values);
+		return reason;
+	}
+
+	protected static int row(int index) {
+		return index / CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+	}
+
+	protected static int column(int index) {
+		return index % CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+	}
+
+	protected static int region(int index) {
+		return (row(index) / CSPSolver.NUMBER_OF_REGIONS_IN_CLM)
+				* CSPSolver.NUMBER_OF_REGIONS_IN_ROW
+				+ column(index) / CSPSolver.NUMBER_OF_REGIONS_IN_ROW;
+	}
+}
@@ -0,0 +1,165 @@
+package arai.csp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The set of inference rules used during constraint propagation.
+ * 
+ * Rules are applied in the order they were added, once the worklist of
+ * assigned variables is empty. As soon as one rule reduces a domain the basic
+ * constraints are propagated again before the next rule gets its turn, so
+ * cheap rules should come first. Each rule can be switched on or off by name,
+ * and the number of times it was applied and the number of domains it
+ * reduced are counted to see which rules pay for themselves.
+ */
+public class InferenceRules {
+
+	public static final String HIDDEN_SINGLE = "hidden single";
+	public static final String NAKED_PAIR = "naked pair";
+	public static final String HIDDEN_PAIR = "hidden pair";
+	public static final String POINTING = "pointing";
+	public static final String BOX_LINE = "box/line";
+	public static final String NAKED_TRIPLE = "naked triple";
+	public static final String HIDDEN_TRIPLE = "hidden triple";
+
+	private final List<InferenceRule> rules = new ArrayList<InferenceRule>();
+	private boolean[] enabled = new boolean[0];
+
+	// Per rule: the number of times it was applied and the number of domains
+	// it reduced
+	private long[] applied = new long[0];
+	private long[] fired = new long[0];
+
+	/**
+	 * All rules that come with the solver, cheapest first. Only hidden singles
+	 * are enabled.
+	 */
+	public static InferenceRules standard() {
+		InferenceRules rules = new InferenceRules();
+		rules.add(new HiddenSingleRule(), true);
+		rules.add(new NakedSubsetRule(NAKED_PAIR, 2), false);
+		rules.add(new HiddenSubsetRule(HIDDEN_PAIR, 2), false);
+		rules.add(new PointingRule(), false);
+		rules.add(new BoxLineRule(), false);
+		rules.add(new NakedSubsetRule(NAKED_TRIPLE, 3), false);
+		rules.add(new HiddenSubsetRule(HIDDEN_TRIPLE, 3), false);
+		return rules;
+	}
+
+	/**
+	 * A set with the same rules switched on or off, but with its own counts.
+	 * Rules without state are shared (see InferenceRule.copy()).
+	 */
+	public InferenceRules copy() {
+		InferenceRules copy = new InferenceRules();
+		for (int i = 0; i < rules.size(); i++)
+			copy.add(rules.get(i).copy(), enabled[i]);
+		return copy;
+	}
+
+	/**
+	 * Add a rule after the rules already in the set.
+	 */
+	public void add(InferenceRule rule, boolean enabled) {
+		rules.add(rule);
+		this.enabled = Arrays.copyOf(this.enabled, rules.size());
+		this.enabled[rules.size() - 1] = enabled;
+		applied = Arrays.copyOf(applied, rules.size());
+		fired = Arrays.copyOf(fired, rules.size());
+	}
+
+	public List<String> getNames() {
+		List<String> names = new ArrayList<String>();
+		for (InferenceRule rule : rules)
+			names.add(rule.getName());
+		return names;
+	}
+
+	public void setEnabled(String name, boolean enabled) {
+		this.enabled[indexOf(name)] = enabled;
+	}
+
+	public void setAllEnabled(boolean enabled) {
+		Arrays.fill(this.enabled, enabled);
+	}
+
+	public boolean isEnabled(String name) {
+		return enabled[indexOf(name)];
+	}
+
+	/**
+	 * The number of times the rule was applied to the puzzle.
+	 */
+	public long getApplied(String name) {
+		return applied[indexOf(name)];
+	}
+
+	/**
+	 * The number of domains the rule reduced.
+	 */
+	public long getFired(String name) {
+		return fired[indexOf(name)];
+	}
+
+	/**
+	 * Add the counts of a copy of this set (see copy()) to the counts here.
+	 */
+	public void addCounts(InferenceRules other) {
+		for (int i = 0; i < rules.size(); i++) {
+			applied[i] += other.applied[i];
+			fired[i] += other.fired[i];
+		}
+	}
+
+	public void resetCounts() {
+		Arrays.fill(applied, 0);
+		Arrays.fill(fired, 0);
+	}
+
+	/**
+	 * One line per rule with its counts, e.g. for printing after a batch.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < rules.size(); i++) {
+			sb.append(rules.get(i).getName());
+			sb.append(enabled[i] ? "" : " (off)");
+			sb.append(": applied ").append(applied[i]);
+			sb.append(", fired ").append(fired[i]).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Apply the enabled rules in order until one of them reduces a domain.
+	 * 
+	 * @return The number of domains reduced by that rule, 0 if no rule could
+	 *         reduce anything or InferenceRule.CONTRADICTION.
+	 */
+	int apply(DomainStore variables, int[][][] units) {
+		for (int i = 0; i < rules.size(); i++) {
+			if (!enabled[i])
+				continue;
+			applied[i]++;
+			if (variables.isExplaining())
+				variables.explainByLevels();
+			int result = rules.get(i).apply(variables, units);
+			if (result == InferenceRule.CONTRADICTION)
+				return result;
+			if (result > 0) {
+				fired[i] += result;
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < rules.size(); i++)
+			if (rules.get(i).getName().equals(name))
+				return i;
+		throw new IllegalArgumentException("Unknown inference rule: " + name);
+	}
+}
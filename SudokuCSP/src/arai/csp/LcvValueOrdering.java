@@ -0,0 +1,68 @@
+package arai.csp;
+
+/**
+ * Least constraining value: the value that the fewest peers still have in
+ * their domain, so assigning it removes the fewest options from the rest of
+ * the puzzle. Ties go to the lowest value.
+ *
+ * The peers with a value are counted from the unit counts of the
+ * DomainStore: the counts of the row, column and region, less the variable
+ * itself in each of them and less the peers that are in the row or column
+ * and the region at the same time, which are counted twice. Only those four
+ * peers are looked at.
+ */
+public class LcvValueOrdering implements ValueOrdering {
+
+	// The other variables of each variable's row and column that are also in
+	// its region
+	private static final int[][] OVERLAPS = new int[CSPSolver.NUMBER_OF_BOXES][4];
+
+	static {
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int overlap = 0;
+			for (int peer = 0; peer < CSPSolver.NUMBER_OF_BOXES; peer++) {
+				if (peer == index
+						|| DomainStore.regionUnit(peer) != DomainStore
+								.regionUnit(index))
+					continue;
+				if (DomainStore.rowUnit(peer) == DomainStore.rowUnit(index)
+						|| DomainStore.columnUnit(peer) == DomainStore
+								.columnUnit(index))
+					OVERLAPS[index][overlap++] = peer;
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return Orderings.LCV;
+	}
+
+	@Override
+	public int next(DomainStore variables, int[][] peersAll, int index,
+			int values) {
+		int leastCount = Integer.MAX_VALUE;
+		int leastValue = 0;
+
+		int row = DomainStore.rowUnit(index);
+		int column = DomainStore.columnUnit(index);
+		int region = DomainStore.regionUnit(index);
+		int[] overlaps = OVERLAPS[index];
+		for (int rest = values; rest != 0; rest &= rest - 1) {
+			int bit = Domains.lowest(rest);
+			int value = Domains.value(bit);
+			// The variable itself has the value, in all three units
+			int count = variables.unitCount(row, value)
+					+ variables.unitCount(column, value)
+					+ variables.unitCount(region, value) - 3;
+			for (int overlap : overlaps)
+				if ((variables.get(overlap) & bit) != 0)
+					count--;
+			if (count < leastCount) {
+				leastCount = count;
+				leastValue = value;
+			}
+		}
+		return leastValue;
+	}
+}
@@ -0,0 +1,328 @@
+package arai.csp;
+
+import java.util.Arrays;
+
+/**
+ * Propagates a block of up to LANES puzzles in lockstep, and hands the
+ * puzzles that propagation alone does not solve to a scalar solver.
+ *
+ * The domains of the block are kept as a structure of arrays: the domains of
+ * one variable in all puzzles (lanes) are an array of their own, as are the
+ * values assigned in one unit. Every step of propagation (removing the values
+ * assigned in its units from a variable, assigning a hidden single) is one
+ * loop over the lanes without branches, on arrays that all start at lane 0,
+ * which the JIT compiler turns into SIMD instructions. A variable that
+ * becomes assigned adds its value to its units at once, so the next
+ * variables already see it. Lanes that are done keep taking part without
+ * changing; the block is finished when no lane changes any more. Most
+ * puzzles of a typical batch are solved this way.
+ *
+ * A lane that ends with an empty domain, or with a value twice or nowhere in
+ * a unit, has no solution. A lane that still has unassigned variables goes
+ * to the scalar solver: a CSPSolver continues from the propagated domains,
+ * any other solver starts over from the puzzle.
+ *
+ * A lockstep solver is meant for one thread, like its scalar solver.
+ */
+public class LockstepSolver {
+
+	// The number of puzzles propagated together
+	public static final int LANES = 64;
+
+	// The variables of each unit (see DomainStore.NUMBER_OF_UNITS)
+	private static final int[][] UNIT_CELLS = new int[DomainStore.NUMBER_OF_UNITS][CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+
+	static {
+		int[] sizes = new int[DomainStore.NUMBER_OF_UNITS];
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int row = DomainStore.rowUnit(index);
+			int column = DomainStore.columnUnit(index);
+			int region = DomainStore.regionUnit(index);
+			UNIT_CELLS[row][sizes[row]++] = index;
+			UNIT_CELLS[column][sizes[column]++] = index;
+			UNIT_CELLS[region][sizes[region]++] = index;
+		}
+	}
+
+	// Solves the puzzles that propagation leaves unsolved
+	private final SudokuSolver scalar;
+
+	// The domain of each variable in all lanes, at [index][lane]
+	private final int[][] domains = new int[CSPSolver.NUMBER_OF_BOXES][LANES];
+
+	// The values assigned in each unit in all lanes, at [unit][lane]
+	private final int[][] unitValues = new int[DomainStore.NUMBER_OF_UNITS][LANES];
+
+	// Per lane: the values seen once and more than once in a unit, the
+	// removed values of the current step, and non-zero once the lane has a
+	// contradiction
+	private final int[] once = new int[LANES];
+	private final int[] twice = new int[LANES];
+	private final int[] changes = new int[LANES];
+	private final int[] conflicts = new int[LANES];
+
+	// The puzzles of the block, for a scalar solver that starts over
+	private final char[] puzzles = new char[CSPSolver.NUMBER_OF_BOXES * LANES];
+
+	// The outcome of each lane
+	private final String[] solutions = new String[LANES];
+	private final int[] statuses = new int[LANES];
+	private final SearchStats[] stats = new SearchStats[LANES];
+
+	// Returned by getStats() for lanes solved in lockstep: no search needed
+	private final SearchStats noSearch = new SearchStats();
+
+	// Lanes finished in lockstep and lanes handed to the scalar solver
+	private long propagatedCount = 0;
+	private long divergedCount = 0;
+
+	/**
+	 * @param scalar
+	 *            Solves the puzzles that propagation leaves unsolved; best a
+	 *            CSPSolver, which continues where propagation stopped.
+	 */
+	public LockstepSolver(SudokuSolver scalar) {
+		this.scalar = scalar;
+	}
+
+	/**
+	 * Put a puzzle in a lane of the next block.
+	 *
+	 * @param lane
+	 *            The lane (0 to LANES - 1).
+	 * @param puzzle
+	 *            The Sudoku puzzle, unassigned variables are denoted with a
+	 *            point ('.'). It is copied, so it may be reused afterwards.
+	 */
+	public void load(int lane, CharSequence puzzle) {
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			char c = puzzle.charAt(index);
+			puzzles[lane * CSPSolver.NUMBER_OF_BOXES + index] = c;
+			domains[index][lane] = Domains.parse(c);
+		}
+	}
+
+	/**
+	 * Solve the puzzles in the first lanes, loaded with load(). The outcome
+	 * of each is available from getSolution(), getStatus() and getStats()
+	 * until the next block.
+	 *
+	 * @param count
+	 *            The number of lanes loaded (at most LANES).
+	 * @return The number of puzzles solved.
+	 */
+	public int solve(int count) {
+		// Empty lanes can't change or conflict
+		for (int lane = count; lane < LANES; lane++)
+			for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+				domains[index][lane] = Domains.FULL;
+		Arrays.fill(conflicts, 0);
+
+		collectGivens();
+		while (step())
+			;
+
+		int solved = 0;
+		for (int lane = 0; lane < count; lane++) {
+			finish(lane);
+			if (statuses[lane] == SudokuSolver.SOLVED)
+				solved++;
+		}
+		return solved;
+	}
+
+	/**
+	 * Set the values assigned in each unit from the puzzles; a value given
+	 * twice is a contradiction.
+	 */
+	private void collectGivens() {
+		for (int unit = 0; unit < DomainStore.NUMBER_OF_UNITS; unit++) {
+			Arrays.fill(once, 0);
+			Arrays.fill(twice, 0);
+			for (int index : UNIT_CELLS[unit]) {
+				int[] cell = domains[index];
+				for (int lane = 0; lane < LANES; lane++) {
+					int single = single(cell[lane]);
+					twice[lane] |= once[lane] & single;
+					once[lane] |= single;
+				}
+			}
+			int[] values = unitValues[unit];
+			for (int lane = 0; lane < LANES; lane++) {
+				values[lane] = once[lane];
+				conflicts[lane] |= twice[lane];
+			}
+		}
+	}
+
+	/**
+	 * One step of propagation in all lanes: remove the assigned values from
+	 * all variables, then assign the hidden singles of all units.
+	 *
+	 * @return True if a lane without a contradiction changed.
+	 */
+	private boolean step() {
+		Arrays.fill(changes, 0);
+
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int[] cell = domains[index];
+			int[] row = unitValues[DomainStore.rowUnit(index)];
+			int[] column = unitValues[DomainStore.columnUnit(index)];
+			int[] region = unitValues[DomainStore.regionUnit(index)];
+			for (int lane = 0; lane < LANES; lane++) {
+				int domain = cell[lane];
+				int single = single(domain);
+				int reduced = (domain & ~(row[lane] | column[lane] | region[lane]))
+						| single;
+				int assigned = single(reduced) & ~single;
+				changes[lane] |= domain ^ reduced;
+				// -1 if the domain is empty
+				conflicts[lane] |= (reduced - 1) >> 31;
+				cell[lane] = reduced;
+				row[lane] |= assigned;
+				column[lane] |= assigned;
+				region[lane] |= assigned;
+			}
+		}
+
+		// Hidden singles: a value that fits in one variable of a unit only
+		for (int unit = 0; unit < DomainStore.NUMBER_OF_UNITS; unit++) {
+			int[] cells = UNIT_CELLS[unit];
+			Arrays.fill(once, 0);
+			Arrays.fill(twice, 0);
+			for (int index : cells) {
+				int[] cell = domains[index];
+				for (int lane = 0; lane < LANES; lane++) {
+					int domain = cell[lane];
+					twice[lane] |= once[lane] & domain;
+					once[lane] |= domain;
+				}
+			}
+			int[] values = unitValues[unit];
+			for (int lane = 0; lane < LANES; lane++) {
+				// A value that fits nowhere
+				conflicts[lane] |= Domains.FULL & ~once[lane];
+				once[lane] &= ~twice[lane] & ~values[lane];
+			}
+			for (int index : cells) {
+				int[] cell = domains[index];
+				int[] row = unitValues[DomainStore.rowUnit(index)];
+				int[] column = unitValues[DomainStore.columnUnit(index)];
+				int[] region = unitValues[DomainStore.regionUnit(index)];
+				for (int lane = 0; lane < LANES; lane++) {
+					int domain = cell[lane];
+					int hidden = domain & once[lane];
+					// Two hidden values, or one assigned elsewhere already
+					conflicts[lane] |= (hidden & (hidden - 1))
+							| (hidden & (row[lane] | column[lane] | region[lane]));
+					// -1 if the variable has a hidden value
+					int found = (hidden | -hidden) >> 31;
+					int reduced = (hidden & found) | (domain & ~found);
+					changes[lane] |= domain ^ reduced;
+					cell[lane] = reduced;
+					row[lane] |= hidden;
+					column[lane] |= hidden;
+					region[lane] |= hidden;
+				}
+			}
+		}
+
+		for (int lane = 0; lane < LANES; lane++)
+			if (changes[lane] != 0 && conflicts[lane] == 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * The domain if it has a single value, otherwise 0. Without branches.
+	 */
+	private static int single(int domain) {
+		int rest = domain & (domain - 1);
+		// -1 if there is more than one value
+		int more = (rest | -rest) >> 31;
+		return domain & ~more;
+	}
+
+	/**
+	 * Set the outcome of a lane after propagation, solving it with the scalar
+	 * solver if needed.
+	 */
+	private void finish(int lane) {
+		if (conflicts[lane] != 0) {
+			propagatedCount++;
+			solutions[lane] = null;
+			statuses[lane] = SudokuSolver.UNSOLVABLE;
+			stats[lane] = noSearch;
+			return;
+		}
+
+		char[] solution = new char[CSPSolver.NUMBER_OF_BOXES];
+		int[] laneDomains = new int[CSPSolver.NUMBER_OF_BOXES];
+		boolean complete = true;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int domain = domains[index][lane];
+			laneDomains[index] = domain;
+			if (Domains.isSingle(domain))
+				solution[index] = (char) ('0' + Domains.value(domain));
+			else
+				complete = false;
+		}
+		if (complete) {
+			propagatedCount++;
+			solutions[lane] = new String(solution);
+			statuses[lane] = SudokuSolver.SOLVED;
+			stats[lane] = noSearch;
+			return;
+		}
+
+		divergedCount++;
+		boolean solved;
+		if (scalar instanceof CSPSolver)
+			solved = ((CSPSolver) scalar).solve(laneDomains);
+		else
+			solved = scalar.solve(new String(puzzles, lane
+					* CSPSolver.NUMBER_OF_BOXES, CSPSolver.NUMBER_OF_BOXES));
+		solutions[lane] = solved ? scalar.getSolution() : null;
+		statuses[lane] = scalar.getStatus();
+		SearchStats scalarStats = scalar.getStats();
+		stats[lane] = scalarStats == null ? null : scalarStats.copy();
+	}
+
+	/**
+	 * The solution of a lane of the last block, or null if it has none (see
+	 * SudokuSolver.getSolution()).
+	 */
+	public String getSolution(int lane) {
+		return solutions[lane];
+	}
+
+	/**
+	 * The outcome of a lane of the last block, e.g. SudokuSolver.SOLVED.
+	 */
+	public int getStatus(int lane) {
+		return statuses[lane];
+	}
+
+	/**
+	 * The work of the scalar solver for a lane of the last block, no work at
+	 * all if it was finished in lockstep, or null if the scalar solver does
+	 * not count its work.
+	 */
+	public SearchStats getStats(int lane) {
+		return stats[lane];
+	}
+
+	/**
+	 * The number of puzzles finished by propagation in lockstep so far.
+	 */
+	public long getPropagatedCount() {
+		return propagatedCount;
+	}
+
+	/**
+	 * The number of puzzles handed to the scalar solver so far.
+	 */
+	public long getDivergedCount() {
+		return divergedCount;
+	}
+}
@@ -1,19 +1,293 @@
 package arai.csp;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
+	/**
+	 * Without arguments, compare all engines on the first 100 training
+	 * puzzles. With "batch file [workers] [engine] [cache size] [max nodes]
+	 * [max ms] [output file]", stream and solve a whole puzzle file in
+	 * parallel and report the throughput; with a cache size, solutions are
+	 * looked up in a shared SolutionStore first, and with a node or time
+	 * limit (0 for none) every puzzle gets a SearchBudget; the engine "lanes"
+	 * propagates blocks of puzzles in lockstep (see LockstepSolver). With an
+	 * output file, the outcome of every puzzle is written to it, in binary
+	 * records for a ".bin" file (see SolutionWriter). With "count
+	 * file [workers] [engine] [limit]", count the solutions of every puzzle
+	 * in a file up to the limit (2 by default, a uniqueness check). With
+	 * "generate count file [workers] [seed] [minimum givens]", generate new
+	 * rated puzzles (see PuzzleGenerator). With "serve [port] [workers]
+	 * [engine] [queue capacity] [batch size] [max nodes] [max ms]", run a
+	 * SolverService until the process is stopped; "client file [port]"
+	 * streams a file to it.
+	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("batch"))
+			batch(args);
+		else if (args.length > 0 && args[0].equals("count"))
+			count(args);
+		else if (args.length > 0 && args[0].equals("generate"))
+			generate(args);
+		else if (args.length > 0 && args[0].equals("serve"))
+			serve(args);
+		else if (args.length > 0 && args[0].equals("client"))
+			client(args);
+		else
+			compareEngines();
+	}
+
+	/**
+	 * Creates solvers of the engine with the given name: "csp" (the default),
+	 * "dlx" or "brute", or "cbj" for the CSP solver with backjumping and
+	 * nogood learning (see CSPSolver.setBackjumping()), or "portfolio" to
+	 * race several of them (see PortfolioSolver). The orderings of the
+	 * CSP solver can be given as "csp/variable ordering/value ordering", e.g.
+	 * "csp/wdeg/occurrence" (see Orderings).
+	 */
+	public static SolverFactory factory(final String engine) {
+		return new SolverFactory() {
+			@Override
+			public SudokuSolver newSolver() {
+				if (engine.equals("dlx"))
+					return new DancingLinksSolver();
+				if (engine.equals("brute"))
+					return new BruteForce();
+				if (engine.equals("portfolio"))
+					return new PortfolioSolver(
+							PortfolioSolver.DEFAULT_ENGINES, Math.min(Runtime
+									.getRuntime().availableProcessors(),
+									PortfolioSolver.DEFAULT_RACE_SIZE));
+				CSPSolver solver = new CSPSolver();
+				String[] names = engine.split("/");
+				if (names[0].equals("cbj"))
+					solver.setBackjumping(true, NogoodStore.DEFAULT_CAPACITY);
+				if (names.length == 3)
+					solver.setOrderings(Orderings.variableOrdering(names[1]),
+							Orderings.valueOrdering(names[2]));
+				return solver;
+			}
+		};
+	}
+
+	/**
+	 * Creates the solvers of the given factory, each with a copy of the
+	 * budget, or the solvers as they are if there are no limits.
+	 */
+	private static SolverFactory withBudget(final SolverFactory factory,
+			long maxNodes, long maxMillis) {
+		if (maxNodes == SearchBudget.UNLIMITED
+				&& maxMillis == SearchBudget.UNLIMITED)
+			return factory;
+		final SearchBudget budget = new SearchBudget(maxNodes, maxMillis);
+		return new SolverFactory() {
+			@Override
+			public SudokuSolver newSolver() {
+				SudokuSolver solver = factory.newSolver();
+				solver.setBudget(budget.copy());
+				return solver;
+			}
+		};
+	}
+
+	private static void batch(String[] args) {
+		String fileName = args.length > 1 ? args[1] : "sudoku_training.txt";
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		String engine = args.length > 3 ? args[3] : "csp";
+		int cacheSize = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+		long maxNodes = args.length > 5 ? Long.parseLong(args[5]) : 0;
+		long maxMillis = args.length > 6 ? Long.parseLong(args[6]) : 0;
+		String outputName = args.length > 7 ? args[7] : null;
+
+		SolverFactory factory = withBudget(factory(engine), maxNodes,
+				maxMillis);
+		SolutionStore store = null;
+		if (cacheSize > 0) {
+			store = new SolutionStore(cacheSize);
+			factory = CachingSolver.factory(factory, store);
+		}
+
+		BatchSolver batchSolver = new BatchSolver(factory, workers);
+		batchSolver.setLockstep(engine.equals("lanes"));
+		StatsHistogram histogram = new StatsHistogram();
+		batchSolver.setHistogram(histogram);
+		SolutionWriter writer = null;
+		try {
+			if (outputName != null) {
+				writer = new SolutionWriter(outputName,
+						SolutionWriter.formatOf(outputName));
+				batchSolver.setWriter(writer);
+			}
+			batchSolver.solveFile(fileName);
+			if (writer != null)
+				writer.close();
+
+			System.out.println(batchSolver.getPuzzleCount() + " puzzles, "
+					+ batchSolver.getSolvedCount() + " solved by " + workers
+					+ " workers in " + batchSolver.getElapsedNanos() / 1000000
+					+ " ms (" + (long) batchSolver.getPuzzlesPerSecond()
+					+ " puzzles/s), " + batchSolver.getBudgetExceededCount()
+					+ " over budget");
+
+			// work done per puzzle
+			System.out.print(histogram.report());
+			if (store != null)
+				System.out.print(store.report());
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			batchSolver.shutdown();
+		}
+	}
+
+	private static void count(String[] args) {
+		String fileName = args.length > 1 ? args[1] : "sudoku_training.txt";
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		String engine = args.length > 3 ? args[3] : "csp";
+		// The solvers count at least one solution (see countSolutions())
+		int limit = Math.max(1, args.length > 4 ? Integer.parseInt(args[4])
+				: 2);
+
+		BatchSolver batchSolver = new BatchSolver(factory(engine), workers);
+		try {
+			int[] counts = batchSolver.countFile(fileName, limit);
+
+			// the number of puzzles with 0, 1, ... limit solutions
+			int[] puzzles = new int[limit + 1];
+			for (int count : counts)
+				puzzles[count]++;
+
+			System.out.println(counts.length + " puzzles checked by "
+					+ workers + " workers in "
+					+ batchSolver.getElapsedNanos() / 1000000 + " ms ("
+					+ (long) batchSolver.getPuzzlesPerSecond() + " puzzles/s)");
+			for (int count = 0; count <= limit; count++)
+				System.out.println((count == limit && limit > 1 ? count
+						+ " or more" : "" + count)
+						+ " solutions: " + puzzles[count]);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			batchSolver.shutdown();
+		}
+	}
+
+	/**
+	 * Write the puzzles to the file, one per line, and their ratings to the
+	 * same file with ".ratings" appended (see RatedPuzzle.toString()).
+	 */
+	private static void generate(String[] args) {
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		String fileName = args.length > 2 ? args[2] : "sudoku_generated.txt";
+		int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : System
+				.nanoTime();
+		int minimumGivens = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			long start = System.nanoTime();
+			RatedPuzzle[] puzzles = PuzzleGenerator.generateAll(pool, count,
+					seed, minimumGivens);
+			long elapsed = System.nanoTime() - start;
+
+			PrintWriter puzzleWriter = new PrintWriter(fileName);
+			PrintWriter ratingWriter = new PrintWriter(fileName + ".ratings");
+			int[] difficulties = new int[RatedPuzzle.NUMBER_OF_DIFFICULTIES];
+			for (RatedPuzzle puzzle : puzzles) {
+				puzzleWriter.println(puzzle.getPuzzle());
+				ratingWriter.println(puzzle);
+				difficulties[puzzle.getDifficulty()]++;
+			}
+			puzzleWriter.close();
+			ratingWriter.close();
+
+			System.out.println(count + " puzzles generated by " + workers
+					+ " workers in " + elapsed / 1000000 + " ms ("
+					+ (long) (count * 1e9 / elapsed) + " puzzles/s), seed "
+					+ seed);
+			for (int i = 0; i < difficulties.length; i++)
+				System.out.println(RatedPuzzle.DIFFICULTY_NAMES[i] + ": "
+						+ difficulties[i]);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void serve(String[] args) {
+		int port = args.length > 1 ? Integer.parseInt(args[1])
+				: SolverService.DEFAULT_PORT;
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		String engine = args.length > 3 ? args[3] : "csp";
+		int queueCapacity = args.length > 4 ? Integer.parseInt(args[4])
+				: SolverService.DEFAULT_QUEUE_CAPACITY;
+		int maxBatch = args.length > 5 ? Integer.parseInt(args[5])
+				: SolverService.DEFAULT_MAX_BATCH;
+		long maxNodes = args.length > 6 ? Long.parseLong(args[6]) : 0;
+		long maxMillis = args.length > 7 ? Long.parseLong(args[7]) : 0;
+
+		try {
+			SolverService service = new SolverService(port, withBudget(
+					factory(engine), maxNodes, maxMillis), workers,
+					queueCapacity, maxBatch);
+			System.out.println("Solving on port " + service.getPort()
+					+ " with " + workers + " workers");
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return;
+		}
+
+		// The service runs on daemon threads
+		try {
+			Thread.sleep(Long.MAX_VALUE);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void client(String[] args) {
+		String fileName = args.length > 1 ? args[1] : "sudoku_training.txt";
+		int port = args.length > 2 ? Integer.parseInt(args[2])
+				: SolverService.DEFAULT_PORT;
+
+		ServiceClient client = new ServiceClient(port);
+		try {
+			int answers = client.solveFile(fileName);
+			System.out.println(answers + " answers (" + client.getSolvedCount()
+					+ " solved, " + client.getUnsolvedCount() + " unsolved, "
+					+ client.getInvalidCount() + " invalid, "
+					+ client.getExceededCount() + " over budget, "
+					+ client.getErrorCount() + " errors) in "
+					+ client.getElapsedNanos() / 1000000 + " ms ("
+					+ (long) (answers * 1e9 / client.getElapsedNanos())
+					+ " answers/s)");
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+
+	private static void compareEngines() {
 		SudokuReader sr = new SudokuReader("sudoku_training.txt");
 
 		CSPSolver cspSolver = new CSPSolver();
-		// BruteForce bruteSolver = new BruteForce();
 
-		List<Long> avgCsp = new ArrayList<Long>();
-		List<Long> avgBru = new ArrayList<Long>();
+		// The engines to compare, all solving the same puzzles
+		SudokuSolver[] solvers = { cspSolver, new BruteForce(),
+				new DancingLinksSolver() };
+
+		List<List<Long>> times = new ArrayList<List<Long>>();
+		for (int i = 0; i < solvers.length; i++)
+			times.add(new ArrayList<Long>());
 
 		try {
 			List<String> puzzles = sr.readPuzzles();
@@ -24,37 +298,34 @@ public class Main {
 				if (++count > 100)
 					break;
 
-				// run and time CSP Solver
-				long cspStart = System.currentTimeMillis();
-				cspSolver.solve(puzzle);
-				long cspEnd = System.currentTimeMillis();
-				long cspDiff = cspEnd - cspStart;
-
-				// run and time brute force solver
-				long bruteStart = System.currentTimeMillis();
-				new BruteForce().solve(puzzle);
-				long bruteEnd = System.currentTimeMillis();
-				long bruteDiff = bruteEnd - bruteStart;
+				String line = "" + count;
+				for (int i = 0; i < solvers.length; i++) {
+					// run and time each solver
+					long start = System.currentTimeMillis();
+					solvers[i].solve(puzzle);
+					long end = System.currentTimeMillis();
+					long diff = end - start;
 
-				avgCsp.add(cspDiff);
-				avgBru.add(bruteDiff);
+					times.get(i).add(diff);
+					line += " " + diff;
+				}
 
 				// time
-				System.out.println(count + " " + cspDiff + " " + bruteDiff);
+				System.out.println(line);
 			}
 
-			long sumCsp = 0;
-			long sumBru = 0;
-
-			for (Long l : avgCsp)
-				sumCsp += l;
-
-			for (Long l : avgBru)
-				sumBru += l;
-
 			// averages
-			System.out.println("  " + " " + (sumCsp / avgCsp.size()) + " "
-					+ (sumBru / avgBru.size()));
+			String line = "  ";
+			for (int i = 0; i < solvers.length; i++) {
+				long sum = 0;
+				for (Long l : times.get(i))
+					sum += l;
+				line += " " + (sum / times.get(i).size());
+			}
+			System.out.println(line);
+
+			// how often each inference rule fired
+			System.out.print(cspSolver.getRules().report());
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		}
@@ -0,0 +1,173 @@
+package arai.csp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the puzzles of a file through a memory-mapped window, one at a
+ * time, without creating a String per line.
+ * 
+ * Like SudokuReader, every line of exactly 81 characters is a puzzle and all
+ * other lines are skipped. Each call to next() fills the same PuzzleBuffer.
+ * The file is mapped in windows of at most WINDOW_SIZE bytes, so files of any
+ * size can be read.
+ * 
+ * A reader can be limited to a byte range of the file. split() cuts a file
+ * into ranges at line boundaries, so parallel consumers can each read their
+ * own part.
+ */
+public class MappedPuzzleReader implements Closeable {
+
+	// The largest part of the file that is mapped at once
+	public static final int WINDOW_SIZE = 1 << 26;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+
+	// Lines starting before this offset are read
+	private final long end;
+
+	// The offset of the next line
+	private long position;
+
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	// The offset of the current puzzle
+	private long offset = -1;
+
+	private final PuzzleBuffer puzzle = new PuzzleBuffer();
+
+	public MappedPuzzleReader(String fileName) throws IOException {
+		this(fileName, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Read the lines that start in the given byte range.
+	 * 
+	 * @param start
+	 *            The offset of the first line (see split()).
+	 * @param end
+	 *            The offset after the last line to read.
+	 */
+	public MappedPuzzleReader(String fileName, long start, long end)
+			throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		fileSize = channel.size();
+		this.position = start;
+		this.end = Math.min(end, fileSize);
+	}
+
+	/**
+	 * Cut the file into byte ranges of about the same size that start at the
+	 * beginning of a line.
+	 * 
+	 * @return The offsets of the range boundaries: range i runs from element i
+	 *         to element i + 1. Ranges may be empty.
+	 */
+	public static long[] split(String fileName, int parts) throws IOException {
+		long[] boundaries = new long[parts + 1];
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			boundaries[parts] = size;
+			for (int i = 1; i < parts; i++) {
+				long boundary = Math.max(boundaries[i - 1], size * i / parts);
+				boundaries[i] = nextLineStart(channel, buffer, boundary, size);
+			}
+		} finally {
+			file.close();
+		}
+		return boundaries;
+	}
+
+	/**
+	 * The start of the first line at or after the given offset.
+	 */
+	private static long nextLineStart(FileChannel channel, ByteBuffer buffer,
+			long offset, long size) throws IOException {
+		if (offset == 0)
+			return 0;
+		// The line starts at offset if the byte before it ends a line
+		long position = offset - 1;
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Advance to the next puzzle.
+	 * 
+	 * @return False if there are no more puzzles in the range.
+	 */
+	public boolean next() throws IOException {
+		while (position < end) {
+			long lineStart = position;
+			long lineEnd = lineStart;
+			while (lineEnd < fileSize && byteAt(lineEnd) != '\n')
+				lineEnd++;
+			position = lineEnd + 1;
+
+			long length = lineEnd - lineStart;
+			if (length > 0 && byteAt(lineEnd - 1) == '\r')
+				length--;
+			if (length != PuzzleBuffer.PUZZLE_LENGTH)
+				continue;
+
+			byte[] cells = puzzle.bytes();
+			for (int i = 0; i < cells.length; i++)
+				cells[i] = byteAt(lineStart + i);
+			offset = lineStart;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The current puzzle. The same buffer is refilled by every call to
+	 * next().
+	 */
+	public PuzzleBuffer puzzle() {
+		return puzzle;
+	}
+
+	/**
+	 * The byte offset of the current puzzle in the file.
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	private byte byteAt(long position) throws IOException {
+		long relative = position - windowStart;
+		if (window == null || relative < 0 || relative >= window.limit()) {
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(WINDOW_SIZE, fileSize - position));
+			relative = 0;
+		}
+		return window.get((int) relative);
+	}
+}
@@ -0,0 +1,50 @@
+package arai.csp;
+
+/**
+ * Minimum remaining values with the degree heuristic to break ties: of the
+ * variables with the smallest domain, the one with the most unassigned
+ * peers, i.e. the one that constrains the rest of the puzzle most. Only the
+ * tied variables are visited, through the size buckets of the DomainStore.
+ */
+public class MrvDegreeVariableOrdering implements VariableOrdering {
+
+	@Override
+	public String getName() {
+		return Orderings.MRV_DEGREE;
+	}
+
+	@Override
+	public int select(DomainStore variables, int[][] peersAll) {
+		int size = variables.smallestOpenSize();
+		if (size == 0)
+			return -1;
+
+		int best = -1;
+		int bestDegree = -1;
+		for (int index = variables.nextOfSize(size, 0); index >= 0; index = variables
+				.nextOfSize(size, index + 1)) {
+			int degree = 0;
+			for (int peer : peersAll[index])
+				if (!Domains.isSingle(variables.get(peer)))
+					degree++;
+			if (degree > bestDegree) {
+				best = index;
+				bestDegree = degree;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public void conflict(int index, int peer) {
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public VariableOrdering copy() {
+		return new MrvDegreeVariableOrdering();
+	}
+}
@@ -0,0 +1,33 @@
+package arai.csp;
+
+/**
+ * Minimum remaining values: the variable with the smallest domain, the first
+ * one in row order if there are several. Found from the size buckets of the
+ * DomainStore without scanning the variables.
+ */
+public class MrvVariableOrdering implements VariableOrdering {
+
+	@Override
+	public String getName() {
+		return Orderings.MRV;
+	}
+
+	@Override
+	public int select(DomainStore variables, int[][] peersAll) {
+		int size = variables.smallestOpenSize();
+		return size == 0 ? -1 : variables.nextOfSize(size, 0);
+	}
+
+	@Override
+	public void conflict(int index, int peer) {
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public VariableOrdering copy() {
+		return new MrvVariableOrdering();
+	}
+}
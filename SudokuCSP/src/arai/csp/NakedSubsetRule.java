@@ -0,0 +1,106 @@
+package arai.csp;
+
+/**
+ * If the domains of N variables in a unit together hold only N values (a
+ * naked pair or triple), those values must go in these variables and can be
+ * removed from the other variables of the unit.
+ */
+public class NakedSubsetRule extends InferenceRule {
+
+	private final int size;
+
+	// The variables of a unit that can be part of a subset
+	private final int[] candidates = new int[CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+
+	/**
+	 * @param size
+	 *            The number of variables in the subset (2 for pairs, 3 for
+	 *            triples).
+	 */
+	public NakedSubsetRule(String name, int size) {
+		super(name);
+		this.size = size;
+	}
+
+	@Override
+	public InferenceRule copy() {
+		return new NakedSubsetRule(getName(), size);
+	}
+
+	@Override
+	public int apply(DomainStore variables, int[][][] units) {
+		int fired = 0;
+		for (int[][] unitsOfType : units) {
+			for (int[] unit : unitsOfType) {
+				// Only unassigned variables with small enough domains can be
+				// part of a subset
+				int count = 0;
+				for (int index : unit) {
+					int domainSize = Domains.size(variables.get(index));
+					if (domainSize > 1 && domainSize <= size)
+						candidates[count++] = index;
+				}
+				if (count < size)
+					continue;
+
+				int result = findSubsets(variables, unit, candidates, count,
+						0, 0, 0);
+				if (result == CONTRADICTION)
+					return CONTRADICTION;
+				fired += result;
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * Try all combinations of candidates recursively and apply every subset
+	 * that is found.
+	 * 
+	 * @param start
+	 *            The first candidate that may still be added.
+	 * @param depth
+	 *            The number of candidates in the combination so far.
+	 * @param values
+	 *            The union of the domains in the combination so far.
+	 */
+	private int findSubsets(DomainStore variables, int[] unit,
+			int[] candidates, int count, int start, int depth, int values) {
+		if (Domains.size(values) > size)
+			return 0;
+		// More variables than values left for them
+		if (depth > Domains.size(values) && depth > 0)
+			return CONTRADICTION;
+		if (depth == size)
+			return removeFromOthers(variables, unit, values);
+
+		int fired = 0;
+		for (int i = start; i < count; i++) {
+			int result = findSubsets(variables, unit, candidates, count,
+					i + 1, depth + 1, values | variables.get(candidates[i]));
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+
+	/**
+	 * Remove the values of a subset from all variables of the unit whose
+	 * domain is not contained in the subset.
+	 */
+	private int removeFromOthers(DomainStore variables, int[] unit,
+			int values) {
+		int fired = 0;
+		for (int index : unit) {
+			int domain = variables.get(index);
+			if ((domain & ~values) == 0)
+				continue;
+			int result = eliminate(variables, index, values);
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+}
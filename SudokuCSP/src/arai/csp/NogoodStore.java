@@ -0,0 +1,157 @@
+package arai.csp;
+
+/**
+ * Nogoods learned by a backjumping search (see CSPSolver.setBackjumping()):
+ * combinations of assignments that cannot all hold in a solution of the
+ * puzzle. Every nogood is a list of (variable, value) pairs, the decisions
+ * the search found to be the reason of a failed subtree.
+ *
+ * During propagation, a nogood whose pairs all hold but one removes the value
+ * of the last pair from its variable, so the same dead end is not searched
+ * again under other assignments; a nogood whose pairs all hold is a
+ * contradiction.
+ *
+ * The store is bounded: it keeps at most capacity nogoods of at most
+ * MAX_LENGTH pairs, and a new nogood replaces the oldest one when it is
+ * full. Longer nogoods rarely apply and are not kept. Nogoods only hold for
+ * the puzzle they were learned from; clear() the store for the next one.
+ */
+public class NogoodStore {
+
+	// The largest number of pairs in a nogood that is kept
+	public static final int MAX_LENGTH = 8;
+
+	// A capacity that keeps checking the store cheap
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// The variables and values of each nogood, and its number of pairs
+	private final int[][] indexes;
+	private final int[][] values;
+	private final int[] lengths;
+
+	// The number of nogoods kept, and the slot of the next one
+	private int size = 0;
+	private int next = 0;
+
+	// Nogoods learned and values removed by them (for the last puzzle)
+	private long learnedCount = 0;
+	private long prunedCount = 0;
+
+	/**
+	 * @param capacity
+	 *            The largest number of nogoods kept (at least 1).
+	 */
+	public NogoodStore(int capacity) {
+		capacity = Math.max(1, capacity);
+		indexes = new int[capacity][MAX_LENGTH];
+		values = new int[capacity][MAX_LENGTH];
+		lengths = new int[capacity];
+	}
+
+	public int getCapacity() {
+		return lengths.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The number of nogoods learned since the last clear().
+	 */
+	public long getLearnedCount() {
+		return learnedCount;
+	}
+
+	/**
+	 * The number of values removed by nogoods since the last clear().
+	 */
+	public long getPrunedCount() {
+		return prunedCount;
+	}
+
+	/**
+	 * Forget all nogoods, before a new puzzle.
+	 */
+	public void clear() {
+		size = 0;
+		next = 0;
+		learnedCount = 0;
+		prunedCount = 0;
+	}
+
+	/**
+	 * Add a nogood, unless it has more than MAX_LENGTH pairs.
+	 *
+	 * @param indexes
+	 *            The variables of the pairs.
+	 * @param values
+	 *            The values (1-9) of the pairs.
+	 * @param length
+	 *            The number of pairs.
+	 * @return True if the nogood was kept.
+	 */
+	public boolean add(int[] indexes, int[] values, int length) {
+		if (length == 0 || length > MAX_LENGTH)
+			return false;
+		System.arraycopy(indexes, 0, this.indexes[next], 0, length);
+		System.arraycopy(values, 0, this.values[next], 0, length);
+		lengths[next] = length;
+		next = (next + 1) % lengths.length;
+		if (size < lengths.length)
+			size++;
+		learnedCount++;
+		return true;
+	}
+
+	/**
+	 * Apply all nogoods once to the domains.
+	 *
+	 * @return The number of domains that were reduced, or
+	 *         InferenceRule.CONTRADICTION.
+	 */
+	int apply(DomainStore variables) {
+		int reduced = 0;
+		for (int nogood = 0; nogood < size; nogood++) {
+			int[] indexes = this.indexes[nogood];
+			int[] values = this.values[nogood];
+			int length = lengths[nogood];
+
+			// The one pair that does not hold yet, and the reason of the
+			// others
+			int open = -1;
+			long reason = 0;
+			int pair;
+			for (pair = 0; pair < length; pair++) {
+				int domain = variables.get(indexes[pair]);
+				int bit = Domains.bit(values[pair]);
+				if ((domain & bit) == 0)
+					break;
+				if (domain == bit) {
+					if (variables.isExplaining())
+						reason |= variables.reasonOf(indexes[pair]);
+				} else if (open < 0) {
+					open = pair;
+				} else {
+					break;
+				}
+			}
+			// A pair that can no longer hold, or two open pairs
+			if (pair < length)
+				continue;
+
+			if (variables.isExplaining()) {
+				variables.because(reason);
+				variables.conflict(reason);
+			}
+			if (open < 0)
+				return InferenceRule.CONTRADICTION;
+			int index = indexes[open];
+			variables.set(index,
+					variables.get(index) & ~Domains.bit(values[open]));
+			reduced++;
+		}
+		prunedCount += reduced;
+		return reduced;
+	}
+}
@@ -0,0 +1,30 @@
+package arai.csp;
+
+/**
+ * The value that is assigned most often in the puzzle so far first: such a
+ * value has the fewest places left, so a wrong choice shows up soon. Ties go
+ * to the lowest value. The counts are kept by the DomainStore.
+ */
+public class OccurrenceValueOrdering implements ValueOrdering {
+
+	@Override
+	public String getName() {
+		return Orderings.OCCURRENCE;
+	}
+
+	@Override
+	public int next(DomainStore variables, int[][] peersAll, int index,
+			int values) {
+		int mostCount = -1;
+		int mostValue = 0;
+		for (int rest = values; rest != 0; rest &= rest - 1) {
+			int value = Domains.value(rest);
+			int count = variables.valueCount(value);
+			if (count > mostCount) {
+				mostCount = count;
+				mostValue = value;
+			}
+		}
+		return mostValue;
+	}
+}
@@ -0,0 +1,43 @@
+package arai.csp;
+
+/**
+ * The variable and value orderings by name.
+ */
+public final class Orderings {
+
+	// Variable orderings
+	public static final String MRV = "mrv";
+	public static final String MRV_DEGREE = "degree";
+	public static final String DOM_WDEG = "wdeg";
+
+	// Value orderings
+	public static final String LCV = "lcv";
+	public static final String OCCURRENCE = "occurrence";
+
+	private Orderings() {
+	}
+
+	/**
+	 * A new variable ordering with the given name.
+	 */
+	public static VariableOrdering variableOrdering(String name) {
+		if (name.equals(MRV))
+			return new MrvVariableOrdering();
+		if (name.equals(MRV_DEGREE))
+			return new MrvDegreeVariableOrdering();
+		if (name.equals(DOM_WDEG))
+			return new DomWdegVariableOrdering();
+		throw new IllegalArgumentException("Unknown variable ordering: " + name);
+	}
+
+	/**
+	 * The value ordering with the given name.
+	 */
+	public static ValueOrdering valueOrdering(String name) {
+		if (name.equals(LCV))
+			return new LcvValueOrdering();
+		if (name.equals(OCCURRENCE))
+			return new OccurrenceValueOrdering();
+		throw new IllegalArgumentException("Unknown value ordering: " + name);
+	}
+}
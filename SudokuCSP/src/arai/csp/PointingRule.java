@@ -0,0 +1,69 @@
+package arai.csp;
+
+/**
+ * If all variables of a region that can hold a value lie in the same row (or
+ * column), the value must go in that part of the row and can be removed from
+ * the rest of the row (pointing pairs and triples).
+ */
+public class PointingRule extends InferenceRule {
+
+	public PointingRule() {
+		super(InferenceRules.POINTING);
+	}
+
+	@Override
+	public int apply(DomainStore variables, int[][][] units) {
+		int fired = 0;
+		for (int region = 0; region < units[CSPSolver.REGION].length; region++) {
+			int[] unit = units[CSPSolver.REGION][region];
+			for (int value = 1; value <= Domains.NUMBER_OF_VALUES; value++) {
+				int bit = Domains.bit(value);
+				int rows = 0;
+				int columns = 0;
+				int count = 0;
+				for (int index : unit) {
+					if ((variables.get(index) & bit) == 0)
+						continue;
+					rows |= 1 << row(index);
+					columns |= 1 << column(index);
+					count++;
+				}
+				// A single variable is a hidden single, not a pointing pair
+				if (count < 2)
+					continue;
+
+				int result = 0;
+				if (Integer.bitCount(rows) == 1)
+					result = removeOutside(variables,
+							units[CSPSolver.ROW][Integer
+									.numberOfTrailingZeros(rows)], region, bit);
+				else if (Integer.bitCount(columns) == 1)
+					result = removeOutside(variables,
+							units[CSPSolver.COLUMN][Integer
+									.numberOfTrailingZeros(columns)], region,
+							bit);
+				if (result == CONTRADICTION)
+					return CONTRADICTION;
+				fired += result;
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * Remove the value from all variables of the line outside the region.
+	 */
+	private int removeOutside(DomainStore variables, int[] line, int region,
+			int bit) {
+		int fired = 0;
+		for (int index : line) {
+			if (region(index) == region)
+				continue;
+			int result = eliminate(variables, index, bit);
+			if (result == CONTRADICTION)
+				return CONTRADICTION;
+			fired += result;
+		}
+		return fired;
+	}
+}
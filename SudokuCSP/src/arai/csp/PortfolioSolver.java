@@ -0,0 +1,369 @@
+package arai.csp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Races several solver configurations on the same puzzle and returns the
+ * first answer; the other configurations are cancelled through their budgets.
+ *
+ * The puzzle is first propagated on its own. That answers the easy puzzles
+ * without a race, and gives the features the configurations are learned by:
+ * the number of givens and the number of values left in the open domains.
+ * For every class of puzzles with similar features, the portfolio counts how
+ * often each configuration won. Once a class has been seen MIN_OBSERVATIONS
+ * times, only the raceSize configurations that won most often race; every
+ * EXPLORE_INTERVAL puzzles of the class, all configurations race again, so
+ * the counts keep up. Until then all of them race. The learning only saves
+ * work if the race size is smaller than the number of configurations; with
+ * a race size of all configurations, every race runs all of them and the
+ * counts only decide which partial solution is kept.
+ *
+ * Every configuration runs on a thread of its own, with a solver of its own.
+ * The budget of the portfolio (see setBudget()) applies to each of them and
+ * cancelling it stops the whole race; the race itself is stopped through a
+ * budget of its own, so the budget given is never cancelled by the
+ * portfolio. Like other solvers, a portfolio is meant for one caller at a
+ * time.
+ *
+ * The threads are shared by all portfolios, e.g. the one of every worker of
+ * a BatchSolver or SolverService: they are started as races need them and
+ * end after a minute without work, so a portfolio needs no shutdown.
+ */
+public class PortfolioSolver implements SudokuSolver {
+
+	// The configurations raced by default (see Main.factory())
+	public static final String[] DEFAULT_ENGINES = { "csp", "cbj/wdeg/lcv",
+			"dlx" };
+
+	// Puzzles of a class after which only the best configurations race
+	public static final int MIN_OBSERVATIONS = 8;
+
+	// The number of configurations raced once a class is learned: fewer than
+	// the DEFAULT_ENGINES, so learning narrows the race
+	public static final int DEFAULT_RACE_SIZE = 2;
+
+	// Every this many puzzles of a class, all configurations race
+	public static final int EXPLORE_INTERVAL = 16;
+
+	// The feature classes: givens in steps of 5 from 17, and values left in
+	// the open domains in steps of 40
+	private static final int GIVENS_CLASSES = 5;
+	private static final int VALUES_CLASSES = 8;
+	private static final int FIRST_GIVENS = 17;
+	private static final int GIVENS_STEP = 5;
+
+	// Runs the configurations of the races of all portfolios
+	private static final ExecutorService EXECUTOR = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "portfolio");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private static final int VALUES_STEP = 40;
+
+	private final String[] engines;
+	private final SudokuSolver[] solvers;
+	private final int raceSize;
+
+	// Propagates every puzzle before the race
+	private final CSPSolver probe = new CSPSolver();
+
+	// The wins of each configuration and the races of each feature class
+	private final int[][] wins;
+	private final int[] races = new int[GIVENS_CLASSES * VALUES_CLASSES];
+
+	// Limits every configuration, and stops the race when cancelled
+	private SearchBudget budget = null;
+
+	// The outcome of the last puzzle: the winning configuration (-1 if the
+	// puzzle was answered by propagation or nobody answered), and the one
+	// that was expected to win
+	private int winner = -1;
+	private int favorite = 0;
+	private String solution = null;
+	private int status = UNSOLVABLE;
+	private SearchStats stats = null;
+
+	/**
+	 * A portfolio of the DEFAULT_ENGINES that races DEFAULT_RACE_SIZE of
+	 * them once a class of puzzles is learned.
+	 */
+	public PortfolioSolver() {
+		this(DEFAULT_ENGINES, DEFAULT_RACE_SIZE);
+	}
+
+	/**
+	 * @param engines
+	 *            The names of the configurations (see Main.factory()).
+	 * @param raceSize
+	 *            The number of configurations to race once a feature class
+	 *            has been learned; best the number of cores, but fewer than
+	 *            the configurations for the learning to matter.
+	 */
+	public PortfolioSolver(String[] engines, int raceSize) {
+		this.engines = engines.clone();
+		this.solvers = new SudokuSolver[engines.length];
+		for (int i = 0; i < engines.length; i++)
+			solvers[i] = Main.factory(engines[i]).newSolver();
+		this.raceSize = Math.max(1, Math.min(raceSize, engines.length));
+		this.wins = new int[races.length][engines.length];
+	}
+
+	/**
+	 * Creates portfolios of the given configurations.
+	 */
+	public static SolverFactory factory(final String[] engines,
+			final int raceSize) {
+		return new SolverFactory() {
+			@Override
+			public SudokuSolver newSolver() {
+				return new PortfolioSolver(engines, raceSize);
+			}
+		};
+	}
+
+	@Override
+	public boolean solve(CharSequence puzzle) {
+		winner = -1;
+		solution = null;
+		status = UNSOLVABLE;
+		final String racePuzzle = puzzle.toString();
+
+		// The race is cancelled through a budget of its own, a part of the
+		// budget given
+		SearchBudget race;
+		if (budget != null) {
+			budget.start();
+			race = budget.child();
+		} else {
+			race = new SearchBudget(SearchBudget.UNLIMITED,
+					SearchBudget.UNLIMITED);
+		}
+		race.start();
+
+		// Propagation alone answers the easy puzzles
+		boolean consistent = probe.propagate(racePuzzle);
+		stats = probe.getStats();
+		if (!consistent)
+			return false;
+		if (probe.getVariables().isComplete()) {
+			solution = probe.getSolution();
+			status = SOLVED;
+			return true;
+		}
+
+		int feature = featureClass(racePuzzle, probe.getVariables());
+		int[] order = order(feature);
+		favorite = order[0];
+		boolean exploring = races[feature] < MIN_OBSERVATIONS
+				|| races[feature] % EXPLORE_INTERVAL == 0;
+		int size = exploring ? solvers.length : raceSize;
+
+		if (size == 1) {
+			// No race: solve on the calling thread
+			solvers[favorite].setBudget(race.child());
+			solvers[favorite].solve(racePuzzle);
+			if (solvers[favorite].getStatus() != BUDGET_EXCEEDED)
+				winner = favorite;
+		} else {
+			race(racePuzzle, race, order, size);
+		}
+
+		if (winner < 0) {
+			status = BUDGET_EXCEEDED;
+			stats = solvers[favorite].getStats();
+			return false;
+		}
+
+		races[feature]++;
+		wins[feature][winner]++;
+		SudokuSolver solver = solvers[winner];
+		solution = solver.getSolution();
+		status = solver.getStatus();
+		stats = solver.getStats();
+		return solution != null;
+	}
+
+	/**
+	 * Race the first configurations of the order on their threads until one
+	 * of them answers, which becomes the winner; then cancel the others.
+	 */
+	private void race(final String puzzle, SearchBudget race, int[] order,
+			int size) {
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(
+				EXECUTOR);
+		List<Future<Integer>> entries = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < size; i++) {
+			final int configuration = order[i];
+			solvers[configuration].setBudget(race.child());
+			entries.add(completion.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					solvers[configuration].solve(puzzle);
+					return configuration;
+				}
+			}));
+		}
+
+		// The first definite answer wins; the rest only ran out of budget
+		try {
+			for (int i = 0; i < size && winner < 0; i++) {
+				int configuration = completion.take().get();
+				if (solvers[configuration].getStatus() != BUDGET_EXCEEDED)
+					winner = configuration;
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		} finally {
+			race.cancel();
+			awaitAll(entries);
+		}
+	}
+
+	/**
+	 * Wait until the losers have stopped, so their solvers can be used for
+	 * the next race.
+	 */
+	private static void awaitAll(List<Future<Integer>> entries) {
+		boolean interrupted = false;
+		for (Future<Integer> entry : entries) {
+			while (true) {
+				try {
+					entry.get();
+					break;
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				} catch (ExecutionException ee) {
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * The feature class of a puzzle, from its givens and the values left in
+	 * its domains after propagation.
+	 */
+	private static int featureClass(String puzzle, DomainStore variables) {
+		int givens = 0;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+			if (Domains.isSingle(Domains.parse(puzzle.charAt(index))))
+				givens++;
+		int values = 0;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int size = Domains.size(variables.get(index));
+			if (size > 1)
+				values += size;
+		}
+		int givensClass = Math.min(GIVENS_CLASSES - 1,
+				Math.max(0, givens - FIRST_GIVENS) / GIVENS_STEP);
+		int valuesClass = Math.min(VALUES_CLASSES - 1, values / VALUES_STEP);
+		return givensClass * VALUES_CLASSES + valuesClass;
+	}
+
+	/**
+	 * The configurations by the number of wins in the feature class, most
+	 * first; ties keep the order of the configurations.
+	 */
+	private int[] order(int feature) {
+		int[] order = new int[solvers.length];
+		for (int i = 0; i < order.length; i++) {
+			int configuration = i;
+			int j = i;
+			while (j > 0 && wins[feature][order[j - 1]] < wins[feature][configuration]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = configuration;
+		}
+		return order;
+	}
+
+	/**
+	 * Counting is not raced; the first configuration counts.
+	 */
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		SudokuSolver solver = solvers[0];
+		solver.setBudget(budget);
+		winner = 0;
+		favorite = 0;
+		int count = solver.countSolutions(puzzle, limit);
+		solution = solver.getSolution();
+		status = solver.getStatus();
+		stats = solver.getStats();
+		return count;
+	}
+
+	/**
+	 * The name of the configuration that answered the last puzzle, or null
+	 * if it was answered by propagation alone or not at all.
+	 */
+	public String getWinner() {
+		return winner < 0 ? null : engines[winner];
+	}
+
+	@Override
+	public String getSolution() {
+		return solution;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * The partial solution of the configuration that was expected to win.
+	 */
+	@Override
+	public String getPartialSolution() {
+		if (status != BUDGET_EXCEEDED)
+			return null;
+		return solvers[favorite].getPartialSolution();
+	}
+
+	@Override
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * The work of the winning configuration for the last puzzle.
+	 */
+	@Override
+	public SearchStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * The number of races each configuration won, over all feature classes.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		for (int configuration = 0; configuration < engines.length; configuration++) {
+			int total = 0;
+			for (int[] classWins : wins)
+				total += classWins[configuration];
+			report.append(engines[configuration]).append(": won ")
+					.append(total).append('\n');
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,49 @@
+package arai.csp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for a pass of constraint propagation of a
+ * CSPSolver (see CSPSolver.constraintProp()) that takes longer than the
+ * threshold, e.g. because the inference rules keep firing.
+ */
+@Name("arai.csp.Propagation")
+@Label("Sudoku Propagation")
+@Category("Sudoku")
+@Description("A slow pass of constraint propagation")
+@StackTrace(false)
+@Threshold("100 us")
+public final class PropagationEvent extends jdk.jfr.Event {
+
+	// Checked before an event is created, so a disabled event costs nothing
+	static final EventType TYPE = EventType.getEventType(PropagationEvent.class);
+
+	@Label("Consistent")
+	@Description("False if propagation led to an empty domain")
+	boolean consistent;
+
+	@Label("Assigned")
+	@Description("The variables with a single value afterwards")
+	int assigned;
+
+	/**
+	 * Set the outcome of the pass and record the event, if it took longer
+	 * than the threshold.
+	 */
+	void complete(DomainStore variables, boolean consistent) {
+		end();
+		if (!shouldCommit())
+			return;
+		this.consistent = consistent;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+			if (Domains.isSingle(variables.get(index)))
+				assigned++;
+		commit();
+	}
+}
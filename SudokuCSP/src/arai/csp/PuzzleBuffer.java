@@ -0,0 +1,45 @@
+package arai.csp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable puzzle of 81 characters stored as bytes.
+ * 
+ * Readers fill the bytes of the same buffer for every puzzle and solvers read
+ * them through the CharSequence interface, so no String is created per
+ * puzzle. The contents change with every puzzle that is read; use toString()
+ * to keep one.
+ */
+public class PuzzleBuffer implements CharSequence {
+
+	public static final int PUZZLE_LENGTH = CSPSolver.NUMBER_OF_BOXES;
+
+	private final byte[] cells = new byte[PUZZLE_LENGTH];
+
+	/**
+	 * The bytes of the puzzle, to be filled by a reader.
+	 */
+	public byte[] bytes() {
+		return cells;
+	}
+
+	@Override
+	public int length() {
+		return PUZZLE_LENGTH;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (cells[index] & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return new String(cells, StandardCharsets.ISO_8859_1);
+	}
+}
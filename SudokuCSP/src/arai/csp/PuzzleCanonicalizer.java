@@ -0,0 +1,251 @@
+package arai.csp;
+
+/**
+ * Brings puzzles into a canonical form under the symmetries of Sudoku:
+ * relabeling the digits, transposing, swapping bands (and stacks) and
+ * swapping rows within a band (and columns within a stack). Rotations and
+ * reflections are combinations of these. Puzzles that are copies of each
+ * other under these symmetries get the same canonical form, so a solution
+ * found for one of them can be mapped back to all others (see toOriginal()).
+ *
+ * Trying all 2 * 6^8 arrangements of rows and columns would take far longer
+ * than solving, so rows, columns, bands and stacks are first sorted by keys
+ * that the symmetries don't change (the number of givens in a row and the
+ * numbers of givens in the columns they are in, and the other way around).
+ * Only arrangements that keep the keys sorted are tried, i.e. tied rows,
+ * columns, bands and stacks are swapped. Of those, the arrangement with the
+ * smallest puzzle (empty boxes first, then digits relabeled in order of
+ * appearance) is the canonical form.
+ *
+ * With very many ties (e.g. an almost empty puzzle) only the first sorted
+ * arrangement is taken. The form is then still a valid copy of the puzzle,
+ * but symmetric copies may get a different one.
+ *
+ * A canonicalizer keeps the transformation of the last puzzle and is not
+ * thread-safe.
+ */
+public class PuzzleCanonicalizer {
+
+	// Arrangements of the rows and columns tried per transposition, at most
+	public static final int MAX_CANDIDATES = 4096;
+
+	private static final int SIZE = CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+
+	// All orders of three rows in a band (or columns in a stack)
+	private static final int[][] PERMUTATIONS = { { 0, 1, 2 }, { 0, 2, 1 },
+			{ 1, 0, 2 }, { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+
+	// The largest number of row (or column) orders that keep the keys sorted
+	private static final int MAX_ORDERS = 6 * 6 * 6 * 6;
+
+	// The values (0 if empty) of the puzzle, transposed or not, and the box
+	// of the original puzzle each of them comes from
+	private final int[] grid = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] gridSource = new int[CSPSolver.NUMBER_OF_BOXES];
+
+	// Sort keys and the orders that keep them sorted
+	private final int[] rowKeys = new int[SIZE];
+	private final int[] columnKeys = new int[SIZE];
+	private final int[][] rowOrders = new int[MAX_ORDERS][SIZE];
+	private final int[][] columnOrders = new int[MAX_ORDERS][SIZE];
+
+	// The arrangement being tried
+	private final int[] values = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] sources = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] labelOf = new int[Domains.NUMBER_OF_VALUES + 1];
+
+	// The smallest arrangement so far
+	private boolean hasBest = false;
+	private final int[] bestValues = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] bestSources = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] bestLabelOf = new int[Domains.NUMBER_OF_VALUES + 1];
+
+	// The original digit of each label of the canonical form
+	private final int[] digitOf = new int[Domains.NUMBER_OF_VALUES + 1];
+
+	/**
+	 * The canonical form of the puzzle. The transformation is kept for
+	 * toOriginal().
+	 *
+	 * @param puzzle
+	 *            The Sudoku puzzle, unassigned variables are denoted with a
+	 *            point ('.').
+	 * @return The canonical puzzle, 81 characters with a point for every
+	 *         empty box.
+	 */
+	public String canonicalize(CharSequence puzzle) {
+		hasBest = false;
+		for (int transpose = 0; transpose < 2; transpose++) {
+			for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+				int row = index / SIZE;
+				int column = index % SIZE;
+				int source = transpose == 0 ? index : column * SIZE + row;
+				char c = puzzle.charAt(source);
+				grid[index] = c >= '1' && c <= '9' ? c - '0' : 0;
+				gridSource[index] = source;
+			}
+
+			setKeys();
+			int rows = orders(rowKeys, rowOrders);
+			int columns = orders(columnKeys, columnOrders);
+			if (rows * columns > MAX_CANDIDATES) {
+				rows = 1;
+				columns = 1;
+			}
+
+			for (int r = 0; r < rows; r++)
+				for (int c = 0; c < columns; c++)
+					tryArrangement(rowOrders[r], columnOrders[c]);
+		}
+
+		// Digits that don't appear get the remaining labels in order
+		int next = 1;
+		for (int digit = 1; digit <= Domains.NUMBER_OF_VALUES; digit++)
+			if (bestLabelOf[digit] != 0)
+				next = Math.max(next, bestLabelOf[digit] + 1);
+		for (int digit = 1; digit <= Domains.NUMBER_OF_VALUES; digit++) {
+			if (bestLabelOf[digit] == 0)
+				bestLabelOf[digit] = next++;
+			digitOf[bestLabelOf[digit]] = digit;
+		}
+
+		char[] canonical = new char[CSPSolver.NUMBER_OF_BOXES];
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+			canonical[index] = bestValues[index] == 0 ? '.'
+					: (char) ('0' + bestValues[index]);
+		return new String(canonical);
+	}
+
+	/**
+	 * Map a solution of the last canonical form back to the orientation and
+	 * digits of the puzzle it was made from.
+	 *
+	 * @param canonicalSolution
+	 *            A (partial) solution of the canonical puzzle as 81
+	 *            characters; anything but a digit is kept as it is.
+	 * @return The solution of the original puzzle.
+	 */
+	public String toOriginal(String canonicalSolution) {
+		char[] solution = new char[CSPSolver.NUMBER_OF_BOXES];
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			char c = canonicalSolution.charAt(index);
+			if (c >= '1' && c <= '9')
+				c = (char) ('0' + digitOf[c - '0']);
+			solution[bestSources[index]] = c;
+		}
+		return new String(solution);
+	}
+
+	/**
+	 * Key of each row: its number of givens, then the sum of the numbers of
+	 * givens in the columns of its givens. The same for the columns.
+	 */
+	private void setKeys() {
+		int[] rowCounts = new int[SIZE];
+		int[] columnCounts = new int[SIZE];
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			if (grid[index] != 0) {
+				rowCounts[index / SIZE]++;
+				columnCounts[index % SIZE]++;
+			}
+		}
+		for (int i = 0; i < SIZE; i++) {
+			rowKeys[i] = rowCounts[i] * 100;
+			columnKeys[i] = columnCounts[i] * 100;
+		}
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			if (grid[index] != 0) {
+				rowKeys[index / SIZE] += columnCounts[index % SIZE];
+				columnKeys[index % SIZE] += rowCounts[index / SIZE];
+			}
+		}
+	}
+
+	/**
+	 * All orders of the rows (or columns) in which the bands are sorted by
+	 * their sorted row keys and the rows within each band by their keys.
+	 *
+	 * @return The number of orders.
+	 */
+	private static int orders(int[] keys, int[][] orders) {
+		long[] bandKeys = new long[3];
+		for (int band = 0; band < 3; band++) {
+			int a = keys[3 * band];
+			int b = keys[3 * band + 1];
+			int c = keys[3 * band + 2];
+			int low = Math.min(a, Math.min(b, c));
+			int high = Math.max(a, Math.max(b, c));
+			bandKeys[band] = ((long) low << 32) | ((long) (a + b + c - low - high) << 16)
+					| high;
+		}
+
+		int count = 0;
+		for (int[] bands : PERMUTATIONS) {
+			if (bandKeys[bands[0]] > bandKeys[bands[1]]
+					|| bandKeys[bands[1]] > bandKeys[bands[2]])
+				continue;
+			for (int[] first : PERMUTATIONS) {
+				if (!isSorted(keys, bands[0], first))
+					continue;
+				for (int[] second : PERMUTATIONS) {
+					if (!isSorted(keys, bands[1], second))
+						continue;
+					for (int[] third : PERMUTATIONS) {
+						if (!isSorted(keys, bands[2], third))
+							continue;
+						int[] order = orders[count++];
+						for (int i = 0; i < 3; i++) {
+							order[i] = 3 * bands[0] + first[i];
+							order[3 + i] = 3 * bands[1] + second[i];
+							order[6 + i] = 3 * bands[2] + third[i];
+						}
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private static boolean isSorted(int[] keys, int band, int[] rows) {
+		return keys[3 * band + rows[0]] <= keys[3 * band + rows[1]]
+				&& keys[3 * band + rows[1]] <= keys[3 * band + rows[2]];
+	}
+
+	/**
+	 * Arrange the grid in the given row and column order, relabel the digits
+	 * in order of appearance and keep the result if it is the smallest so
+	 * far. Stops as soon as it is known to be larger.
+	 */
+	private void tryArrangement(int[] rowOrder, int[] columnOrder) {
+		for (int digit = 1; digit <= Domains.NUMBER_OF_VALUES; digit++)
+			labelOf[digit] = 0;
+		int nextLabel = 1;
+
+		boolean smaller = !hasBest;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			int cell = rowOrder[index / SIZE] * SIZE
+					+ columnOrder[index % SIZE];
+			int value = grid[cell];
+			if (value != 0) {
+				if (labelOf[value] == 0)
+					labelOf[value] = nextLabel++;
+				value = labelOf[value];
+			}
+			if (!smaller) {
+				if (value > bestValues[index])
+					return;
+				if (value < bestValues[index])
+					smaller = true;
+			}
+			values[index] = value;
+			sources[index] = gridSource[cell];
+		}
+		if (!smaller)
+			return;
+
+		hasBest = true;
+		System.arraycopy(values, 0, bestValues, 0, CSPSolver.NUMBER_OF_BOXES);
+		System.arraycopy(sources, 0, bestSources, 0, CSPSolver.NUMBER_OF_BOXES);
+		System.arraycopy(labelOf, 0, bestLabelOf, 0, labelOf.length);
+	}
+}
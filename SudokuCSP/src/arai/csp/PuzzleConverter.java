@@ -0,0 +1,97 @@
+package arai.csp;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts puzzle files between the text format (one line of 81 characters
+ * per puzzle, see SudokuReader) and the binary format (see
+ * BinaryPuzzleFormat).
+ * 
+ * Usage: PuzzleConverter toBinary text-file binary-file [--solve]
+ * 
+ * PuzzleConverter toText binary-file text-file [--solutions]
+ * 
+ * With --solve every puzzle is solved with CSPSolver and stored with its
+ * solution. With --solutions the text file gets the stored solutions instead
+ * of the puzzles (an unsolved puzzle is written as all points).
+ */
+public class PuzzleConverter {
+
+	public static void main(String[] args) throws IOException {
+		// The command and its option
+		String option = null;
+		if (args.length == 3 || args.length == 4) {
+			if (args[0].equals("toBinary"))
+				option = "--solve";
+			else if (args[0].equals("toText"))
+				option = "--solutions";
+		}
+		if (option == null || (args.length == 4 && !args[3].equals(option))) {
+			System.out.println("Usage: PuzzleConverter toBinary text-file binary-file [--solve]");
+			System.out.println("       PuzzleConverter toText binary-file text-file [--solutions]");
+			return;
+		}
+
+		long count;
+		if (args[0].equals("toBinary"))
+			count = toBinary(args[1], args[2], args.length == 4);
+		else
+			count = toText(args[1], args[2], args.length == 4);
+		System.out.println(count + " puzzles converted");
+	}
+
+	/**
+	 * Convert a text file to a binary file.
+	 * 
+	 * @param solve
+	 *            True to solve every puzzle and store its solution.
+	 * @return The number of puzzles converted.
+	 */
+	public static long toBinary(String textFile, String binaryFile,
+			boolean solve) throws IOException {
+		CSPSolver solver = solve ? new CSPSolver() : null;
+		try (MappedPuzzleReader reader = new MappedPuzzleReader(textFile);
+				BinaryPuzzleWriter writer = new BinaryPuzzleWriter(binaryFile,
+						solve)) {
+			while (reader.next()) {
+				PuzzleBuffer puzzle = reader.puzzle();
+				if (solver == null)
+					writer.write(puzzle);
+				else
+					writer.write(puzzle,
+							solver.solve(puzzle) ? solver.getSolution() : null);
+			}
+			return writer.getCount();
+		}
+	}
+
+	/**
+	 * Convert a binary file to a text file.
+	 * 
+	 * @param solutions
+	 *            True to write the stored solutions instead of the puzzles.
+	 * @return The number of puzzles converted.
+	 */
+	public static long toText(String binaryFile, String textFile,
+			boolean solutions) throws IOException {
+		try (BinaryPuzzleReader reader = new BinaryPuzzleReader(binaryFile);
+				Writer writer = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(textFile),
+						StandardCharsets.US_ASCII))) {
+			PuzzleBuffer puzzle = new PuzzleBuffer();
+			for (long record = 0; record < reader.getCount(); record++) {
+				if (solutions)
+					reader.getSolution(record, puzzle);
+				else
+					reader.getPuzzle(record, puzzle);
+				writer.append(puzzle).append('\n');
+			}
+			return reader.getCount();
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package arai.csp;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates new puzzles with a unique solution and rates their difficulty.
+ *
+ * A full grid is filled at random (the box with the fewest candidates first,
+ * its candidates in random order), then the clues are removed one by one in
+ * random order; a clue is put back if the puzzle no longer has exactly one
+ * solution without it (see CSPSolver.countSolutions()). The result is a
+ * minimal puzzle: no clue can be removed without losing uniqueness.
+ *
+ * The difficulty is rated from the work done by a CSPSolver with all
+ * inference rules enabled (see RatedPuzzle).
+ *
+ * A generator is not thread-safe; generateAll() gives every range of the
+ * batch a generator of its own.
+ */
+public class PuzzleGenerator {
+
+	private final Random random;
+
+	// Checks that the solution stays unique while clues are removed
+	private final CSPSolver checker = new CSPSolver();
+
+	// Solves the finished puzzle with all rules to rate it
+	private final CSPSolver rater;
+
+	// Stop removing clues when this many are left
+	private int minimumGivens = 0;
+
+	// The grid being filled and the values used in each unit
+	private final int[] grid = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] rowValues = new int[CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+	private final int[] columnValues = new int[CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+	private final int[] regionValues = new int[CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+
+	// The order in which clues are removed
+	private final int[] order = new int[CSPSolver.NUMBER_OF_BOXES];
+
+	private final PuzzleBuffer puzzle = new PuzzleBuffer();
+
+	/**
+	 * @param seed
+	 *            The seed for the random numbers; the same seed generates the
+	 *            same puzzles.
+	 */
+	public PuzzleGenerator(long seed) {
+		random = new Random(seed);
+		checker.setStatsEnabled(false);
+		InferenceRules rules = InferenceRules.standard();
+		rules.setAllEnabled(true);
+		rater = new CSPSolver(rules);
+	}
+
+	/**
+	 * Keep at least the given number of clues, which makes generating faster
+	 * and the puzzles easier. By default clues are removed for as long as the
+	 * solution stays unique.
+	 */
+	public void setMinimumGivens(int minimumGivens) {
+		this.minimumGivens = minimumGivens;
+	}
+
+	/**
+	 * Generate a puzzle and rate it.
+	 */
+	public RatedPuzzle generate() {
+		String solution = generateGrid();
+		return rate(removeClues(solution));
+	}
+
+	/**
+	 * A random full grid as 81 digits in row order.
+	 */
+	public String generateGrid() {
+		for (int i = 0; i < CSPSolver.NUMBER_OF_BOXES_IN_ROW; i++) {
+			rowValues[i] = 0;
+			columnValues[i] = 0;
+			regionValues[i] = 0;
+		}
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+			grid[index] = 0;
+
+		fill(0);
+
+		char[] digits = new char[CSPSolver.NUMBER_OF_BOXES];
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++)
+			digits[index] = (char) ('0' + grid[index]);
+		return new String(digits);
+	}
+
+	/**
+	 * Remove clues from a full grid in random order for as long as the
+	 * solution stays unique.
+	 *
+	 * @param solution
+	 *            A full grid, e.g. from generateGrid().
+	 * @return The puzzle, with a point ('.') for every removed clue.
+	 */
+	public String removeClues(String solution) {
+		byte[] cells = puzzle.bytes();
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			cells[index] = (byte) solution.charAt(index);
+			order[index] = index;
+		}
+		shuffle(order);
+
+		int givens = CSPSolver.NUMBER_OF_BOXES;
+		for (int i = 0; i < CSPSolver.NUMBER_OF_BOXES
+				&& givens > minimumGivens; i++) {
+			int index = order[i];
+			byte clue = cells[index];
+			cells[index] = '.';
+			if (checker.countSolutions(puzzle, 2) == 1)
+				givens--;
+			else
+				cells[index] = clue;
+		}
+		return puzzle.toString();
+	}
+
+	/**
+	 * Rate a puzzle by solving it with all inference rules enabled.
+	 *
+	 * @param puzzle
+	 *            A puzzle with a unique solution.
+	 * @return The rated puzzle, or null if it could not be solved.
+	 */
+	public RatedPuzzle rate(String puzzle) {
+		InferenceRules rules = rater.getRules();
+		rules.resetCounts();
+		if (!rater.solve(puzzle))
+			return null;
+
+		SearchStats stats = rater.getStats();
+		boolean advanced = false;
+		StringBuilder fired = new StringBuilder();
+		for (String name : rules.getNames()) {
+			if (rules.getFired(name) == 0)
+				continue;
+			if (!name.equals(InferenceRules.HIDDEN_SINGLE))
+				advanced = true;
+			if (fired.length() > 0)
+				fired.append(',');
+			fired.append(name);
+		}
+
+		int difficulty;
+		if (stats.getNodes() == 0)
+			difficulty = advanced ? RatedPuzzle.MEDIUM : RatedPuzzle.EASY;
+		else if (stats.getBacktracks() <= RatedPuzzle.HARD_BACKTRACKS)
+			difficulty = RatedPuzzle.HARD;
+		else
+			difficulty = RatedPuzzle.EXPERT;
+
+		return new RatedPuzzle(puzzle, rater.getSolution(), difficulty,
+				stats.getNodes(), stats.getBacktracks(), fired.toString());
+	}
+
+	/**
+	 * Generate puzzles in parallel. Every range of the batch gets a generator
+	 * seeded from the seed and its position, so the same seed gives the same
+	 * puzzles whatever the number of workers.
+	 *
+	 * @param pool
+	 *            The pool to generate on.
+	 * @param count
+	 *            The number of puzzles to generate.
+	 * @param seed
+	 *            The seed for the random numbers.
+	 * @param minimumGivens
+	 *            See setMinimumGivens().
+	 * @return The rated puzzles.
+	 */
+	public static RatedPuzzle[] generateAll(ForkJoinPool pool, int count,
+			long seed, int minimumGivens) {
+		RatedPuzzle[] puzzles = new RatedPuzzle[count];
+		pool.invoke(new GenerateRange(puzzles, 0, count, seed, minimumGivens));
+		return puzzles;
+	}
+
+	/**
+	 * Fill the grid from the box with the fewest candidates on, trying its
+	 * candidates in random order.
+	 *
+	 * @param filled
+	 *            The number of boxes filled so far.
+	 * @return True if the grid was completed.
+	 */
+	private boolean fill(int filled) {
+		if (filled == CSPSolver.NUMBER_OF_BOXES)
+			return true;
+
+		int best = -1;
+		int bestCandidates = 0;
+		int bestSize = Integer.MAX_VALUE;
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			if (grid[index] != 0)
+				continue;
+			int candidates = candidates(index);
+			int size = Domains.size(candidates);
+			if (size == 0)
+				return false;
+			if (size < bestSize) {
+				best = index;
+				bestCandidates = candidates;
+				bestSize = size;
+			}
+		}
+
+		for (int rest = bestCandidates; rest != 0;) {
+			// Pick one of the remaining candidates at random
+			int pick = rest;
+			for (int skip = random.nextInt(Domains.size(rest)); skip > 0; skip--)
+				pick &= pick - 1;
+			int bit = Domains.lowest(pick);
+
+			set(best, Domains.value(bit));
+			if (fill(filled + 1))
+				return true;
+			set(best, 0);
+			rest &= ~bit;
+		}
+		return false;
+	}
+
+	/**
+	 * The values not used yet in the row, column and region of the box.
+	 */
+	private int candidates(int index) {
+		int used = rowValues[InferenceRule.row(index)]
+				| columnValues[InferenceRule.column(index)]
+				| regionValues[InferenceRule.region(index)];
+		return Domains.FULL & ~used;
+	}
+
+	/**
+	 * Set the value of a box, or clear it with 0, and update the unit masks.
+	 */
+	private void set(int index, int value) {
+		int row = InferenceRule.row(index);
+		int column = InferenceRule.column(index);
+		int region = InferenceRule.region(index);
+		if (grid[index] != 0) {
+			int old = ~Domains.bit(grid[index]);
+			rowValues[row] &= old;
+			columnValues[column] &= old;
+			regionValues[region] &= old;
+		}
+		grid[index] = value;
+		if (value != 0) {
+			int bit = Domains.bit(value);
+			rowValues[row] |= bit;
+			columnValues[column] |= bit;
+			regionValues[region] |= bit;
+		}
+	}
+
+	private void shuffle(int[] values) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = values[i];
+			values[i] = values[j];
+			values[j] = swap;
+		}
+	}
+
+	/**
+	 * Generates the puzzles from start (inclusive) to end (exclusive),
+	 * splitting the range in two while it is larger than
+	 * BatchSolver.SPLIT_THRESHOLD.
+	 */
+	private static class GenerateRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RatedPuzzle[] puzzles;
+		private final int start;
+		private final int end;
+		private final long seed;
+		private final int minimumGivens;
+
+		GenerateRange(RatedPuzzle[] puzzles, int start, int end, long seed,
+				int minimumGivens) {
+			this.puzzles = puzzles;
+			this.start = start;
+			this.end = end;
+			this.seed = seed;
+			this.minimumGivens = minimumGivens;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > BatchSolver.SPLIT_THRESHOLD) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new GenerateRange(puzzles, start, middle, seed,
+						minimumGivens), new GenerateRange(puzzles, middle, end,
+						seed, minimumGivens));
+				return;
+			}
+
+			PuzzleGenerator generator = new PuzzleGenerator(seed + start);
+			generator.setMinimumGivens(minimumGivens);
+			for (int i = start; i < end; i++)
+				puzzles[i] = generator.generate();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package arai.csp;
+
+/**
+ * A generated puzzle with its solution and the difficulty rated from the work
+ * CSPSolver needed to solve it (see PuzzleGenerator.rate()).
+ */
+public class RatedPuzzle {
+
+	// Solved by propagation and hidden singles alone
+	public static final int EASY = 0;
+
+	// Solved without searching, but needs pairs, triples or intersections
+	public static final int MEDIUM = 1;
+
+	// Needs searching, with at most HARD_BACKTRACKS backtracks
+	public static final int HARD = 2;
+
+	// Needs searching with more backtracks
+	public static final int EXPERT = 3;
+
+	public static final int NUMBER_OF_DIFFICULTIES = 4;
+
+	public static final String[] DIFFICULTY_NAMES = { "easy", "medium",
+			"hard", "expert" };
+
+	public static final int HARD_BACKTRACKS = 10;
+
+	private final String puzzle;
+	private final String solution;
+	private final int difficulty;
+	private final long nodes;
+	private final long backtracks;
+
+	// The inference rules that fired, separated by commas
+	private final String rules;
+
+	public RatedPuzzle(String puzzle, String solution, int difficulty,
+			long nodes, long backtracks, String rules) {
+		this.puzzle = puzzle;
+		this.solution = solution;
+		this.difficulty = difficulty;
+		this.nodes = nodes;
+		this.backtracks = backtracks;
+		this.rules = rules;
+	}
+
+	public String getPuzzle() {
+		return puzzle;
+	}
+
+	public String getSolution() {
+		return solution;
+	}
+
+	/**
+	 * The difficulty, e.g. EASY.
+	 */
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	/**
+	 * The number of values assigned by the search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getBacktracks() {
+		return backtracks;
+	}
+
+	/**
+	 * The inference rules that fired while solving, separated by commas, or
+	 * an empty string if none did.
+	 */
+	public String getRules() {
+		return rules;
+	}
+
+	/**
+	 * The number of given values.
+	 */
+	public int getGivens() {
+		int givens = 0;
+		for (int i = 0; i < puzzle.length(); i++)
+			if (puzzle.charAt(i) >= '1' && puzzle.charAt(i) <= '9')
+				givens++;
+		return givens;
+	}
+
+	/**
+	 * One line with the puzzle and its rating, separated by tabs: puzzle,
+	 * difficulty, givens, nodes, backtracks and rules.
+	 */
+	@Override
+	public String toString() {
+		return puzzle + '\t' + DIFFICULTY_NAMES[difficulty] + '\t'
+				+ getGivens() + '\t' + nodes + '\t' + backtracks + '\t'
+				+ rules;
+	}
+}
@@ -0,0 +1,168 @@
+package arai.csp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the work a solver may spend on one puzzle: a number of search nodes,
+ * a wall-clock time, or both. The solve can also be cancelled from another
+ * thread with cancel().
+ *
+ * The solver calls start() when it begins a puzzle and step() for every
+ * search node. step() only counts and compares; the node count is a single
+ * atomic add, the clock is read every CLOCK_INTERVAL nodes and the cancel
+ * flag is a single volatile read, so a budget costs next to nothing. A solve
+ * that runs out of budget ends with the status SudokuSolver.BUDGET_EXCEEDED.
+ *
+ * A budget belongs to one solver (see copy()), because it counts the work of
+ * the solve in progress. The parts of a solve that other solvers search,
+ * e.g. the tasks of a parallel search or the configurations of a portfolio,
+ * get children of the budget (see child()), which share its deadline and its
+ * node limit. A cancelled budget stays cancelled, for this solve and the
+ * next ones, until clearCancel(); so a cancel() that comes just before a
+ * solve begins still stops it.
+ */
+public class SearchBudget {
+
+	// The clock is read once per this many nodes (a power of 2)
+	public static final int CLOCK_INTERVAL = 64;
+
+	// No limit on the number of nodes or the time
+	public static final long UNLIMITED = 0;
+
+	private final long maxNodes;
+	private final long maxNanos;
+
+	// The budget of the solve this one is part of (see child()), or null
+	private final SearchBudget parent;
+
+	private volatile boolean cancelled = false;
+
+	// The work done in the solve in progress: by this budget, and by it and
+	// all its children together if there is a node limit
+	private long nodes = 0;
+	private final AtomicLong spent;
+	private long deadline = 0;
+	private boolean exceeded = false;
+
+	/**
+	 * @param maxNodes
+	 *            The largest number of search nodes per puzzle, or UNLIMITED.
+	 * @param maxMillis
+	 *            The longest time per puzzle in milliseconds, or UNLIMITED.
+	 */
+	public SearchBudget(long maxNodes, long maxMillis) {
+		this(maxNodes, maxMillis * 1000000, null);
+	}
+
+	private SearchBudget(long maxNodes, long maxNanos, SearchBudget parent) {
+		this.maxNodes = maxNodes;
+		this.maxNanos = maxNanos;
+		this.parent = parent;
+		this.spent = parent != null ? parent.spent : new AtomicLong();
+	}
+
+	/**
+	 * A budget with the same limits, for another solver.
+	 */
+	public SearchBudget copy() {
+		return new SearchBudget(maxNodes, maxNanos, null);
+	}
+
+	/**
+	 * A budget for a part of the solve in progress that is searched by
+	 * another solver, e.g. a task of a parallel search: it ends at the same
+	 * time and is cancelled with this budget, and its nodes count against the
+	 * node limit of the whole solve. Its start() keeps the deadline.
+	 */
+	SearchBudget child() {
+		SearchBudget child = new SearchBudget(maxNodes, maxNanos, this);
+		child.deadline = deadline;
+		return child;
+	}
+
+	public long getMaxNodes() {
+		return maxNodes;
+	}
+
+	public long getMaxMillis() {
+		return maxNanos / 1000000;
+	}
+
+	/**
+	 * Begin a new solve: reset the node count and set the deadline. A child
+	 * (see child()) only begins its part: it keeps the deadline and the node
+	 * count of the whole solve. A previous cancel() still holds (see
+	 * clearCancel()).
+	 */
+	public void start() {
+		nodes = 0;
+		exceeded = false;
+		if (parent != null) {
+			deadline = parent.deadline;
+			return;
+		}
+		spent.set(0);
+		deadline = maxNanos == UNLIMITED ? 0 : System.nanoTime() + maxNanos;
+	}
+
+	/**
+	 * Stop the solve in progress at its next search node. May be called from
+	 * any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Undo a cancel(), so that the next solves may run again.
+	 */
+	public void clearCancel() {
+		cancelled = false;
+	}
+
+	/**
+	 * True if this budget or any budget it is part of (see child()) was
+	 * cancelled.
+	 */
+	public boolean isCancelled() {
+		for (SearchBudget budget = this; budget != null; budget = budget.parent)
+			if (budget.cancelled)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Count a search node.
+	 *
+	 * @return True if the budget is exceeded or the solve was cancelled; the
+	 *         search should stop.
+	 */
+	public boolean step() {
+		if (exceeded)
+			return true;
+		nodes++;
+		if (maxNodes != UNLIMITED && spent.incrementAndGet() > maxNodes)
+			exceeded = true;
+		else if (isCancelled())
+			exceeded = true;
+		else if (deadline != 0 && (nodes & (CLOCK_INTERVAL - 1)) == 0
+				&& System.nanoTime() - deadline > 0)
+			exceeded = true;
+		return exceeded;
+	}
+
+	/**
+	 * True if the solve in progress ran out of budget or was cancelled.
+	 */
+	public boolean isExceeded() {
+		return exceeded;
+	}
+
+	/**
+	 * The number of nodes counted in the solve in progress by this budget,
+	 * without its children.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+}
@@ -0,0 +1,127 @@
+package arai.csp;
+
+/**
+ * Counts of the work done by a solver for one puzzle.
+ * 
+ * Solvers update the counters directly while searching; a solver without a
+ * statistics object (see setStatsEnabled()) skips the counting altogether.
+ * The object is reused for the next puzzle, so use copy() to keep the numbers
+ * of a solve.
+ */
+public class SearchStats {
+
+	// Metrics, for get() and StatsHistogram
+	public static final int NODES = 0;
+	public static final int BACKTRACKS = 1;
+	public static final int PROPAGATIONS = 2;
+	public static final int ELIMINATIONS = 3;
+	public static final int MAX_DEPTH = 4;
+	public static final int NUMBER_OF_METRICS = 5;
+
+	public static final String[] METRIC_NAMES = { "nodes", "backtracks",
+			"propagations", "eliminations", "max depth" };
+
+	// Values assigned during the search
+	long nodes = 0;
+
+	// Assigned values that had to be undone
+	long backtracks = 0;
+
+	// Runs of constraint propagation
+	long propagations = 0;
+
+	// Values removed from domains by propagation
+	long eliminations = 0;
+
+	// The deepest level of the search tree that was reached
+	int maxDepth = 0;
+
+	// Levels left without trying their other values, because the failure
+	// below them was not caused by their decision (see
+	// CSPSolver.setBackjumping())
+	long backjumps = 0;
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getBacktracks() {
+		return backtracks;
+	}
+
+	public long getPropagations() {
+		return propagations;
+	}
+
+	public long getEliminations() {
+		return eliminations;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getBackjumps() {
+		return backjumps;
+	}
+
+	/**
+	 * The value of the given metric, e.g. NODES.
+	 */
+	public long get(int metric) {
+		switch (metric) {
+		case NODES:
+			return nodes;
+		case BACKTRACKS:
+			return backtracks;
+		case PROPAGATIONS:
+			return propagations;
+		case ELIMINATIONS:
+			return eliminations;
+		case MAX_DEPTH:
+			return maxDepth;
+		default:
+			throw new IllegalArgumentException("Unknown metric: " + metric);
+		}
+	}
+
+	void depth(int depth) {
+		if (depth > maxDepth)
+			maxDepth = depth;
+	}
+
+	/**
+	 * Add the counts of another solve, e.g. of a parallel search task.
+	 */
+	public void add(SearchStats other) {
+		nodes += other.nodes;
+		backtracks += other.backtracks;
+		propagations += other.propagations;
+		eliminations += other.eliminations;
+		depth(other.maxDepth);
+		backjumps += other.backjumps;
+	}
+
+	public void reset() {
+		nodes = 0;
+		backtracks = 0;
+		propagations = 0;
+		eliminations = 0;
+		maxDepth = 0;
+		backjumps = 0;
+	}
+
+	public SearchStats copy() {
+		SearchStats copy = new SearchStats();
+		copy.add(this);
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "nodes=" + nodes + " backtracks=" + backtracks
+				+ " propagations=" + propagations + " eliminations="
+				+ eliminations + " maxDepth=" + maxDepth + " backjumps="
+				+ backjumps;
+	}
+}
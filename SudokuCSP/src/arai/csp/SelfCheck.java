@@ -0,0 +1,318 @@
+package arai.csp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks of the contracts that other code relies on but that the solvers
+ * don't check themselves, run without a test framework.
+ *
+ * Usage: SelfCheck
+ *
+ * Every check prints its name when it passes; the first that fails throws
+ * an IllegalStateException.
+ */
+public class SelfCheck {
+
+	// A puzzle with a single solution, and the solution
+	static final String PUZZLE = ".94...13..............76..2.8..1.....32.........2...6.....5.4.......8..7..63.4..8";
+	static final String SOLUTION = "794582136268931745315476982689715324432869571157243869821657493943128657576394218";
+
+	public static void main(String[] args) throws IOException {
+		checkSessionAssign();
+		checkWriterOrder(SolutionWriter.TEXT);
+		checkWriterOrder(SolutionWriter.BINARY);
+		checkBinaryFormat();
+		checkCanonicalizer();
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * SolvingSession.assign(): replacing an entry with a value that fails
+	 * leaves the entries and the domains as they were.
+	 */
+	static void checkSessionAssign() {
+		SolvingSession session = new SolvingSession(PUZZLE);
+		int failures = 0;
+		for (int cell = 0; cell < CSPSolver.NUMBER_OF_BOXES; cell++) {
+			if (session.isGiven(cell))
+				continue;
+			int right = SOLUTION.charAt(cell) - '0';
+			check(session.assign(cell, right), "assign " + cell);
+
+			// A later entry, to be made again after every replacement
+			int later = (cell + 40) % CSPSolver.NUMBER_OF_BOXES;
+			if (!session.isGiven(later) && session.entry(later) == 0)
+				session.assign(later, SOLUTION.charAt(later) - '0');
+
+			int[] entries = new int[CSPSolver.NUMBER_OF_BOXES];
+			int[] candidates = new int[CSPSolver.NUMBER_OF_BOXES];
+			for (int value = 1; value <= Domains.NUMBER_OF_VALUES; value++) {
+				for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES; box++) {
+					entries[box] = session.entry(box);
+					candidates[box] = session.candidates(box);
+				}
+				if (value == right)
+					continue;
+				if (session.assign(cell, value)) {
+					// Not wrong yet: go back to the right value
+					check(session.assign(cell, right), "assign back " + cell);
+					if (!session.isGiven(later) && session.entry(later) == 0)
+						session.assign(later, SOLUTION.charAt(later) - '0');
+					continue;
+				}
+				failures++;
+				for (int box = 0; box < CSPSolver.NUMBER_OF_BOXES; box++) {
+					check(session.entry(box) == entries[box], "entry " + box
+							+ " after a failed assign at " + cell);
+					check(session.candidates(box) == candidates[box],
+							"candidates " + box + " after a failed assign at "
+									+ cell);
+				}
+			}
+			session.retract(later);
+			session.retract(cell);
+		}
+		check(failures > 0, "no assign failed");
+		System.out.println("SolvingSession.assign: " + failures
+				+ " failed replacements kept the session");
+	}
+
+	/**
+	 * SolutionWriter: ranges that are written and ended out of order, by
+	 * turns, end up in the file in the order of the puzzles.
+	 */
+	static void checkWriterOrder(int format) throws IOException {
+		File file = File.createTempFile("selfcheck", ".out");
+		try {
+			// Ranges 0-3, 3-5 and 5-9, as three workers might write them
+			SolutionWriter writer = new SolutionWriter(file.getPath(), format);
+			write(writer, 5, 5);
+			write(writer, 3, 3);
+			write(writer, 5, 6);
+			write(writer, 0, 0);
+			write(writer, 3, 4);
+			writer.endRange(3, 5);
+			write(writer, 0, 1);
+			write(writer, 5, 7);
+			write(writer, 5, 8);
+			writer.endRange(5, 9);
+			write(writer, 0, 2);
+			writer.endRange(0, 3);
+			writer.close();
+
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			int offset = 0;
+			for (int puzzle = 0; puzzle < 9; puzzle++) {
+				String solution = solutionOf(puzzle);
+				if (format == SolutionWriter.BINARY) {
+					check(bytes[offset] == statusOf(puzzle), "status of record "
+							+ puzzle);
+					for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+						int packed = bytes[offset + 1 + index / 2];
+						int digit = (index & 1) == 0 ? (packed >> 4) & 15
+								: packed & 15;
+						check(digit == (solution == null ? 0 : solution
+								.charAt(index) - '0'), "digit " + index
+								+ " of record " + puzzle);
+					}
+					offset += SolutionWriter.RECORD_SIZE;
+				} else {
+					String expected = solution != null ? solution
+							: statusOf(puzzle) == SudokuSolver.BUDGET_EXCEEDED ? SolverService.BUDGET_EXCEEDED
+									: SolverService.NO_SOLUTION;
+					String line = new String(bytes, offset, expected.length(),
+							"US-ASCII");
+					check(line.equals(expected), "line " + puzzle);
+					offset += expected.length();
+					check(bytes[offset++] == '\n', "end of line " + puzzle);
+				}
+			}
+			check(offset == bytes.length, "length of the file");
+		} finally {
+			file.delete();
+		}
+		System.out.println("SolutionWriter: "
+				+ (format == SolutionWriter.BINARY ? "binary" : "text")
+				+ " records in puzzle order");
+	}
+
+	private static void write(SolutionWriter writer, int range, int puzzle) {
+		writer.write(range, solutionOf(puzzle), statusOf(puzzle));
+	}
+
+	/**
+	 * The outcome of puzzle n in checkWriterOrder(): the solution with its
+	 * digits shifted by n, or none.
+	 */
+	private static String solutionOf(int puzzle) {
+		if (statusOf(puzzle) != SudokuSolver.SOLVED)
+			return null;
+		char[] solution = new char[CSPSolver.NUMBER_OF_BOXES];
+		for (int index = 0; index < solution.length; index++)
+			solution[index] = (char) ('1' + (SOLUTION.charAt(index) - '1' + puzzle)
+					% Domains.NUMBER_OF_VALUES);
+		return new String(solution);
+	}
+
+	private static int statusOf(int puzzle) {
+		return puzzle % 4 == 3 ? SudokuSolver.UNSOLVABLE
+				: puzzle % 7 == 6 ? SudokuSolver.BUDGET_EXCEEDED
+						: SudokuSolver.SOLVED;
+	}
+
+	/**
+	 * BinaryPuzzleWriter and BinaryPuzzleReader: puzzles and solutions come
+	 * back as they were written, from the file and from a buffer holding it
+	 * at any position.
+	 */
+	static void checkBinaryFormat() throws IOException {
+		String[] puzzles = { PUZZLE, PUZZLE.replace('.', '0'), SOLUTION };
+		String[] solutions = { SOLUTION, null, SOLUTION };
+		File file = File.createTempFile("selfcheck", ".bin");
+		try {
+			BinaryPuzzleWriter writer = new BinaryPuzzleWriter(file.getPath(),
+					true);
+			for (int record = 0; record < puzzles.length; record++)
+				writer.write(puzzles[record], solutions[record]);
+			writer.close();
+
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			check(bytes.length == BinaryPuzzleFormat.HEADER_SIZE
+					+ puzzles.length
+					* BinaryPuzzleFormat
+							.recordSize(BinaryPuzzleFormat.SOLUTIONS),
+					"length of the file");
+			checkRecords(new BinaryPuzzleReader(file.getPath()), puzzles,
+					solutions);
+
+			// The same file at a position within a larger buffer
+			ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 10);
+			buffer.position(7);
+			buffer.put(bytes);
+			buffer.position(7);
+			checkRecords(new BinaryPuzzleReader(buffer), puzzles, solutions);
+			check(buffer.position() == 7, "position of the buffer");
+		} finally {
+			file.delete();
+		}
+		System.out.println("BinaryPuzzleFormat: " + puzzles.length
+				+ " records read back from the file and a buffer");
+	}
+
+	private static void checkRecords(BinaryPuzzleReader reader,
+			String[] puzzles, String[] solutions) throws IOException {
+		try {
+			check(reader.getCount() == puzzles.length, "record count");
+			check(reader.hasSolutions(), "solutions flag");
+			PuzzleBuffer buffer = new PuzzleBuffer();
+			for (int record = 0; record < puzzles.length; record++) {
+				reader.getPuzzle(record, buffer);
+				check(buffer.toString().equals(puzzles[record].replace('0', '.')),
+						"puzzle " + record);
+				boolean solved = reader.getSolution(record, buffer);
+				check(solved == (solutions[record] != null), "solution flag "
+						+ record);
+				if (solved)
+					check(buffer.toString().equals(solutions[record]),
+							"solution " + record);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * PuzzleCanonicalizer: symmetric copies of a puzzle get the same
+	 * canonical form, and the solution of the canonical form maps back to
+	 * the solution of each copy.
+	 */
+	static void checkCanonicalizer() {
+		PuzzleCanonicalizer canonicalizer = new PuzzleCanonicalizer();
+		String canonical = canonicalizer.canonicalize(PUZZLE);
+		CSPSolver solver = new CSPSolver();
+		check(solver.solve(canonical), "solving the canonical form");
+		String canonicalSolution = solver.getSolution();
+		check(canonicalizer.toOriginal(canonicalSolution).equals(SOLUTION),
+				"solution of the puzzle");
+
+		Random random = new Random(1);
+		int copies = 20;
+		for (int copy = 0; copy < copies; copy++) {
+			int[] rows = permutation(random);
+			int[] columns = permutation(random);
+			int[] digits = new int[Domains.NUMBER_OF_VALUES + 1];
+			for (int digit = 1; digit < digits.length; digit++)
+				digits[digit] = digit;
+			shuffle(digits, 1, digits.length, random);
+			boolean transpose = random.nextBoolean();
+
+			String puzzle = transform(PUZZLE, rows, columns, digits, transpose);
+			String solution = transform(SOLUTION, rows, columns, digits,
+					transpose);
+			check(canonicalizer.canonicalize(puzzle).equals(canonical),
+					"canonical form of copy " + copy);
+			check(canonicalizer.toOriginal(canonicalSolution).equals(solution),
+					"solution of copy " + copy);
+		}
+		System.out.println("PuzzleCanonicalizer: " + copies
+				+ " symmetric copies share the canonical form");
+	}
+
+	/**
+	 * A random order of the rows (or columns) that keeps them in their band
+	 * (or stack): the bands are shuffled and the rows within each band.
+	 */
+	private static int[] permutation(Random random) {
+		int size = CSPSolver.NUMBER_OF_REGIONS_IN_ROW;
+		int[] bands = { 0, 1, 2 };
+		shuffle(bands, 0, size, random);
+		int[] order = new int[CSPSolver.NUMBER_OF_BOXES_IN_ROW];
+		for (int band = 0; band < size; band++) {
+			int[] rows = { 0, 1, 2 };
+			shuffle(rows, 0, size, random);
+			for (int row = 0; row < size; row++)
+				order[band * size + row] = bands[band] * size + rows[row];
+		}
+		return order;
+	}
+
+	private static void shuffle(int[] values, int from, int to, Random random) {
+		for (int i = to - 1; i > from; i--) {
+			int j = from + random.nextInt(i - from + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	/**
+	 * The grid with its rows and columns reordered, its digits relabeled and
+	 * optionally transposed.
+	 */
+	private static String transform(String grid, int[] rows, int[] columns,
+			int[] digits, boolean transpose) {
+		int size = CSPSolver.NUMBER_OF_BOXES_IN_ROW;
+		char[] result = new char[CSPSolver.NUMBER_OF_BOXES];
+		Arrays.fill(result, '.');
+		for (int row = 0; row < size; row++) {
+			for (int column = 0; column < size; column++) {
+				int source = transpose ? columns[column] * size + rows[row]
+						: rows[row] * size + columns[column];
+				char c = grid.charAt(source);
+				if (c >= '1' && c <= '9')
+					result[row * size + column] = (char) ('0' + digits[c - '0']);
+			}
+		}
+		return new String(result);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException("Check failed: " + message);
+	}
+}
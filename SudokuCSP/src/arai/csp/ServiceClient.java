@@ -0,0 +1,154 @@
+package arai.csp;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a puzzle file to a SolverService on this machine and counts the
+ * answers, to test the service and measure its throughput.
+ *
+ * The puzzles are sent by a second thread while the answers are read, as a
+ * client of the service should do: a client that only reads after sending
+ * everything stalls as soon as the service pushes back.
+ */
+public class ServiceClient {
+
+	private final int port;
+
+	private int solvedCount = 0;
+	private int unsolvedCount = 0;
+	private int invalidCount = 0;
+	private int exceededCount = 0;
+	private int errorCount = 0;
+	private long elapsedNanos = 0;
+
+	public ServiceClient(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Send all lines of the file and wait for all answers.
+	 *
+	 * @param fileName
+	 *            A file with one puzzle per line.
+	 * @return The number of answers.
+	 */
+	public int solveFile(final String fileName) throws IOException {
+		solvedCount = 0;
+		unsolvedCount = 0;
+		invalidCount = 0;
+		exceededCount = 0;
+		errorCount = 0;
+
+		final Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+				port);
+		final IOException[] failure = new IOException[1];
+		try {
+			long start = System.nanoTime();
+			Thread sender = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						send(fileName, socket.getOutputStream());
+						socket.shutdownOutput();
+					} catch (IOException ioe) {
+						failure[0] = ioe;
+					}
+				}
+			}, "service-client-sender");
+			sender.start();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			String answer;
+			while ((answer = reader.readLine()) != null) {
+				if (answer.equals(SolverService.NO_SOLUTION))
+					unsolvedCount++;
+				else if (answer.equals(SolverService.INVALID))
+					invalidCount++;
+				else if (answer.equals(SolverService.BUDGET_EXCEEDED))
+					exceededCount++;
+				else if (answer.equals(SolverService.ERROR))
+					errorCount++;
+				else
+					solvedCount++;
+			}
+			elapsedNanos = System.nanoTime() - start;
+
+			sender.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			socket.close();
+		}
+		if (failure[0] != null)
+			throw failure[0];
+		return solvedCount + unsolvedCount + invalidCount + exceededCount
+				+ errorCount;
+	}
+
+	private static void send(String fileName, OutputStream out)
+			throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName), StandardCharsets.ISO_8859_1));
+		try {
+			Writer writer = new OutputStreamWriter(out,
+					StandardCharsets.ISO_8859_1);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.flush();
+		} finally {
+			reader.close();
+		}
+	}
+
+	public int getSolvedCount() {
+		return solvedCount;
+	}
+
+	/**
+	 * The number of puzzles answered with SolverService.NO_SOLUTION.
+	 */
+	public int getUnsolvedCount() {
+		return unsolvedCount;
+	}
+
+	/**
+	 * The number of lines answered with SolverService.INVALID.
+	 */
+	public int getInvalidCount() {
+		return invalidCount;
+	}
+
+	/**
+	 * The number of puzzles answered with SolverService.BUDGET_EXCEEDED.
+	 */
+	public int getExceededCount() {
+		return exceededCount;
+	}
+
+	/**
+	 * The number of puzzles answered with SolverService.ERROR.
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * The time from connecting until the last answer.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+}
@@ -0,0 +1,106 @@
+package arai.csp;
+
+/**
+ * A solver that may be shared by any number of threads, e.g. by all request
+ * handlers of a service.
+ *
+ * The solvers themselves keep the state of the solve in progress (domains,
+ * trail, statistics) in their fields and are meant for one thread. A shared
+ * solver keeps one of them per calling thread, created by the factory on the
+ * thread's first call and reused for all its later puzzles, so a request
+ * pays for neither the set-up of a solver nor a lock. The tables of the grid
+ * are shared by all of them (see CSPSolver).
+ *
+ * The outcome of a solve (getSolution(), getStatus(), getStats(),
+ * getPartialSolution()) is the one of the last puzzle of the calling thread.
+ * The budget (see setBudget()) applies to every puzzle; each thread counts
+ * against a copy of its own, so cancel() on the budget itself does not stop
+ * the solves in progress.
+ */
+public class SharedSolver implements SudokuSolver {
+
+	// The solver of each calling thread
+	private final ThreadLocal<Context> contexts;
+
+	// Limits the work per puzzle, or null
+	private volatile SearchBudget budget = null;
+
+	/**
+	 * @param factory
+	 *            Creates the solver of each calling thread.
+	 */
+	public SharedSolver(final SolverFactory factory) {
+		contexts = new ThreadLocal<Context>() {
+			@Override
+			protected Context initialValue() {
+				return new Context(factory.newSolver());
+			}
+		};
+	}
+
+	/**
+	 * The solver of the calling thread, with the current budget. It must not
+	 * be handed to other threads.
+	 */
+	public SudokuSolver local() {
+		Context context = contexts.get();
+		SearchBudget shared = budget;
+		if (context.budget != shared) {
+			context.budget = shared;
+			context.solver.setBudget(shared == null ? null : shared.copy());
+		}
+		return context.solver;
+	}
+
+	@Override
+	public boolean solve(CharSequence puzzle) {
+		return local().solve(puzzle);
+	}
+
+	@Override
+	public int countSolutions(CharSequence puzzle, int limit) {
+		return local().countSolutions(puzzle, limit);
+	}
+
+	@Override
+	public String getSolution() {
+		return contexts.get().solver.getSolution();
+	}
+
+	@Override
+	public int getStatus() {
+		return contexts.get().solver.getStatus();
+	}
+
+	@Override
+	public String getPartialSolution() {
+		return contexts.get().solver.getPartialSolution();
+	}
+
+	/**
+	 * Limit the work of every thread per puzzle. Takes effect at the next
+	 * puzzle of each thread.
+	 */
+	@Override
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public SearchStats getStats() {
+		return contexts.get().solver.getStats();
+	}
+
+	/**
+	 * The solver of one thread, and the shared budget it has a copy of.
+	 */
+	private static class Context {
+
+		final SudokuSolver solver;
+		SearchBudget budget = null;
+
+		Context(SudokuSolver solver) {
+			this.solver = solver;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package arai.csp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded store of solutions by canonical puzzle (see PuzzleCanonicalizer),
+ * shared by the CachingSolvers of all worker threads.
+ *
+ * When the store is full, the least recently used puzzle is evicted. Puzzles
+ * without a solution are stored too, with NO_SOLUTION. All methods are
+ * synchronized.
+ */
+public class SolutionStore {
+
+	// Stored for puzzles that have no solution
+	public static final String NO_SOLUTION = "";
+
+	private final LinkedHashMap<String, String> solutions;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param capacity
+	 *            The largest number of puzzles to keep.
+	 */
+	public SolutionStore(final int capacity) {
+		solutions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if (size() <= capacity)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * The solution of a canonical puzzle, counted as a hit or a miss.
+	 *
+	 * @return The solution, NO_SOLUTION or null if the puzzle is not stored.
+	 */
+	public synchronized String get(String canonical) {
+		String solution = solutions.get(canonical);
+		if (solution == null)
+			misses++;
+		else
+			hits++;
+		return solution;
+	}
+
+	public synchronized void put(String canonical, String solution) {
+		solutions.put(canonical, solution);
+	}
+
+	public synchronized int size() {
+		return solutions.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * The share of lookups that were hits.
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public synchronized void clear() {
+		solutions.clear();
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized String report() {
+		return "cache: " + solutions.size() + " puzzles, " + hits + " hits, "
+				+ misses + " misses (" + Math.round(getHitRate() * 100)
+				+ "% hits), " + evictions + " evictions\n";
+	}
+}
@@ -0,0 +1,265 @@
+package arai.csp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the outcome of every puzzle of a batch to a file, in the order of
+ * the puzzles, while worker threads solve them in any order.
+ *
+ * In TEXT format, every puzzle gets a line: its solution (81 digits), or
+ * SolverService.NO_SOLUTION or SolverService.BUDGET_EXCEEDED. In BINARY
+ * format, every puzzle gets a record of RECORD_SIZE bytes: its status (see
+ * SudokuSolver.getStatus()), then the 81 digits of the solution packed two
+ * per byte, high nibble first, all 0 without a solution. Record n starts at
+ * byte n * RECORD_SIZE.
+ *
+ * Records are encoded into one reusable buffer that is written to the file
+ * channel when full, so no Strings are built for the output. The puzzles
+ * arrive in ranges (see write()): each range is written by one thread in
+ * order and is identified by its start, e.g. the position of its first
+ * puzzle or its byte offset in the puzzle file, and the range that ends at
+ * end is followed by the range that starts at end. The range that is next in
+ * order goes straight to the buffer; the records of later ranges are kept
+ * encoded until the ranges before them have ended.
+ *
+ * A writer takes the puzzles of one batch. Writing is synchronized, so the
+ * workers can share one writer. An IOException stops the writing and is
+ * thrown by close().
+ */
+public class SolutionWriter implements Closeable {
+
+	public static final int TEXT = 0;
+	public static final int BINARY = 1;
+
+	// The size of a record in BINARY format: the status and 41 bytes of
+	// digits
+	public static final int RECORD_SIZE = 1 + (CSPSolver.NUMBER_OF_BOXES + 1) / 2;
+
+	// The size of the buffer written to the file at once
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final int format;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	// The record being encoded
+	private final byte[] record = new byte[Math.max(RECORD_SIZE,
+			CSPSolver.NUMBER_OF_BOXES + 1)];
+
+	// The start of the range that is written to the buffer, and the records
+	// of the later ranges by their start
+	private long next = 0;
+	private final Map<Long, Range> waiting = new TreeMap<Long, Range>();
+
+	private long recordCount = 0;
+	private IOException failure = null;
+
+	/**
+	 * Create (or truncate) the file.
+	 *
+	 * @param fileName
+	 *            The file to write.
+	 * @param format
+	 *            TEXT or BINARY.
+	 */
+	public SolutionWriter(String fileName, int format) throws IOException {
+		this.channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.format = format;
+	}
+
+	/**
+	 * The format of a file by its name: BINARY for a ".bin" file, TEXT
+	 * otherwise.
+	 */
+	public static int formatOf(String fileName) {
+		return fileName.endsWith(".bin") ? BINARY : TEXT;
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * The number of records written to the file so far; records of ranges
+	 * that are still waiting are not counted.
+	 */
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Add the outcome of the next puzzle of a range.
+	 *
+	 * @param range
+	 *            The start of the range; the first range starts at 0.
+	 * @param solution
+	 *            The solution, or null if there is none.
+	 * @param status
+	 *            The outcome, e.g. SudokuSolver.SOLVED.
+	 */
+	public synchronized void write(long range, CharSequence solution,
+			int status) {
+		if (failure != null)
+			return;
+		int length = encode(solution, status);
+		if (range == next) {
+			put(record, length, 1);
+		} else {
+			Range later = waiting.get(range);
+			if (later == null) {
+				later = new Range();
+				waiting.put(range, later);
+			}
+			later.add(record, length);
+		}
+	}
+
+	/**
+	 * Mark the end of a range, after its last puzzle; the range that starts
+	 * at end is next. Empty ranges need no mark.
+	 *
+	 * @param range
+	 *            The start of the range.
+	 * @param end
+	 *            The start of the range that follows it.
+	 */
+	public synchronized void endRange(long range, long end) {
+		if (range != next) {
+			Range later = waiting.get(range);
+			if (later == null) {
+				later = new Range();
+				waiting.put(range, later);
+			}
+			later.end = end;
+			return;
+		}
+
+		// Write the waiting ranges that are next now
+		next = end;
+		Range later;
+		while ((later = waiting.remove(next)) != null) {
+			if (failure == null)
+				put(later.records, later.size, later.count);
+			if (later.end < 0) {
+				// Still in progress: the rest goes straight to the buffer
+				return;
+			}
+			next = later.end;
+		}
+	}
+
+	/**
+	 * Write what is buffered, including ranges that never got to be next,
+	 * and close the file.
+	 *
+	 * @throws IOException
+	 *             If writing failed, now or earlier.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			for (Range later : waiting.values())
+				if (failure == null)
+					put(later.records, later.size, later.count);
+			waiting.clear();
+			if (failure == null)
+				flush();
+		} finally {
+			channel.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Encode a record into the record array.
+	 *
+	 * @return The length of the record.
+	 */
+	private int encode(CharSequence solution, int status) {
+		if (format == BINARY) {
+			Arrays.fill(record, 0, RECORD_SIZE, (byte) 0);
+			record[0] = (byte) status;
+			if (solution != null)
+				for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+					int digit = solution.charAt(index) - '0';
+					record[1 + index / 2] |= (index & 1) == 0 ? digit << 4
+							: digit;
+				}
+			return RECORD_SIZE;
+		}
+
+		int length;
+		if (solution != null) {
+			for (length = 0; length < CSPSolver.NUMBER_OF_BOXES; length++)
+				record[length] = (byte) solution.charAt(length);
+		} else {
+			String answer = status == SudokuSolver.BUDGET_EXCEEDED ? SolverService.BUDGET_EXCEEDED
+					: SolverService.NO_SOLUTION;
+			for (length = 0; length < answer.length(); length++)
+				record[length] = (byte) answer.charAt(length);
+		}
+		record[length++] = '\n';
+		return length;
+	}
+
+	/**
+	 * Add encoded records to the buffer, writing it to the file whenever it
+	 * is full.
+	 */
+	private void put(byte[] records, int length, int count) {
+		int offset = 0;
+		try {
+			while (length > 0) {
+				if (!buffer.hasRemaining())
+					flush();
+				int part = Math.min(length, buffer.remaining());
+				buffer.put(records, offset, part);
+				offset += part;
+				length -= part;
+			}
+		} catch (IOException ioe) {
+			failure = ioe;
+		}
+		recordCount += count;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * The encoded records of a range that is not next yet, their number,
+	 * and the start of the range that follows it, or -1 while it has not
+	 * ended.
+	 */
+	private static class Range {
+
+		byte[] records = new byte[16 * RECORD_SIZE];
+		int size = 0;
+		int count = 0;
+		long end = -1;
+
+		void add(byte[] record, int length) {
+			if (size + length > records.length)
+				records = Arrays.copyOf(records,
+						Math.max(2 * records.length, size + length));
+			System.arraycopy(record, 0, records, size, length);
+			size += length;
+			count++;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package arai.csp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for one puzzle solved or counted by a solver, from
+ * the start to the end of the solve. Only solves that take longer than the
+ * threshold are recorded; set it to 0 ms in the recording settings to record
+ * every puzzle.
+ *
+ * The puzzle is identified by its text, as it was given to the solver, so a
+ * slow solve can be replayed.
+ */
+@Name("arai.csp.Solve")
+@Label("Sudoku Solve")
+@Category("Sudoku")
+@Description("A puzzle solved by a solver")
+@StackTrace(false)
+@Threshold("1 ms")
+public final class SolveEvent extends jdk.jfr.Event {
+
+	// Checked before an event is created, so a disabled event costs nothing
+	static final EventType TYPE = EventType.getEventType(SolveEvent.class);
+
+	@Label("Puzzle")
+	String puzzle;
+
+	@Label("Engine")
+	String engine;
+
+	@Label("Result")
+	String result;
+
+	@Label("Solutions")
+	int solutions;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Backtracks")
+	long backtracks;
+
+	/**
+	 * Set the outcome of the solve and record the event, if it took longer
+	 * than the threshold.
+	 *
+	 * @param puzzle
+	 *            The puzzle, formatted only if the event is recorded.
+	 * @param engine
+	 *            The name of the solver, e.g. "csp".
+	 * @param status
+	 *            The outcome, e.g. SudokuSolver.SOLVED.
+	 * @param solutions
+	 *            The number of solutions found.
+	 * @param stats
+	 *            The work of the solve, or null if it was not counted.
+	 */
+	void complete(CharSequence puzzle, String engine, int status,
+			int solutions, SearchStats stats) {
+		end();
+		if (!shouldCommit())
+			return;
+		this.puzzle = puzzle.toString();
+		this.engine = engine;
+		this.result = SudokuSolver.STATUS_NAMES[status];
+		this.solutions = solutions;
+		if (stats != null) {
+			this.nodes = stats.nodes;
+			this.backtracks = stats.backtracks;
+		}
+		commit();
+	}
+}
@@ -0,0 +1,171 @@
+package arai.csp;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark harness comparing the solver engines (and the CSP propagation
+ * step on its own) on a puzzle file.
+ * 
+ * Every benchmark first runs a number of warm-up rounds over all puzzles so
+ * the JIT has compiled the hot code, then times every single call with
+ * System.nanoTime(). It reports the throughput, the mean and the latency
+ * percentiles, and the bytes allocated per call and GC activity during the
+ * measurement (like JMH's GC profiler).
+ * 
+ * Usage: SolverBenchmark [file] [puzzles] [warmup rounds] [rounds]
+ */
+public class SolverBenchmark {
+
+	// Consumes results so the JIT can't remove the benchmarked calls
+	private static volatile long sink = 0;
+
+	/**
+	 * The code under test, called once per puzzle.
+	 */
+	private static abstract class Benchmark {
+
+		private final String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		abstract boolean run(String puzzle);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String fileName = args.length > 0 ? args[0] : "sudoku_training.txt";
+		int puzzleCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int warmupRounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		List<String> puzzles = new SudokuReader(fileName).readPuzzles();
+		if (puzzles.size() > puzzleCount)
+			puzzles = puzzles.subList(0, puzzleCount);
+
+		final CSPSolver cspSolver = new CSPSolver();
+		final CSPSolver propagator = new CSPSolver();
+		final BruteForce bruteSolver = new BruteForce();
+		final DancingLinksSolver dlxSolver = new DancingLinksSolver();
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("CSPSolver.solve") {
+			@Override
+			boolean run(String puzzle) {
+				return cspSolver.solve(puzzle);
+			}
+		});
+		benchmarks.add(new Benchmark("CSPSolver.propagate") {
+			@Override
+			boolean run(String puzzle) {
+				return propagator.propagate(puzzle);
+			}
+		});
+		benchmarks.add(new Benchmark("DancingLinksSolver.solve") {
+			@Override
+			boolean run(String puzzle) {
+				return dlxSolver.solve(puzzle);
+			}
+		});
+		benchmarks.add(new Benchmark("BruteForce.solve") {
+			@Override
+			boolean run(String puzzle) {
+				return bruteSolver.solve(puzzle);
+			}
+		});
+
+		System.out.println(puzzles.size() + " puzzles, " + warmupRounds
+				+ " warm-up rounds, " + rounds + " measured rounds");
+		System.out.println(String.format("%-26s %10s %9s %9s %9s %9s %9s %9s"
+				+ " %10s %9s %5s %6s", "benchmark", "ops/s", "mean us",
+				"p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "B/op",
+				"MB/s", "gcs", "gc ms"));
+		for (Benchmark benchmark : benchmarks)
+			measure(benchmark, puzzles, warmupRounds, rounds);
+	}
+
+	private static void measure(Benchmark benchmark, List<String> puzzles,
+			int warmupRounds, int rounds) {
+		long result = 0;
+		for (int round = 0; round < warmupRounds; round++)
+			for (String puzzle : puzzles)
+				result += benchmark.run(puzzle) ? 1 : 0;
+
+		long[] samples = new long[rounds * puzzles.size()];
+		int sample = 0;
+
+		long allocatedBefore = allocatedBytes();
+		long gcCountBefore = gcCount();
+		long gcTimeBefore = gcTime();
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (String puzzle : puzzles) {
+				long callStart = System.nanoTime();
+				result += benchmark.run(puzzle) ? 1 : 0;
+				samples[sample++] = System.nanoTime() - callStart;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		long gcs = gcCount() - gcCountBefore;
+		long gcMillis = gcTime() - gcTimeBefore;
+		sink += result;
+
+		Arrays.sort(samples);
+		double total = 0;
+		for (long s : samples)
+			total += s;
+
+		System.out.println(String.format("%-26s %10.0f %9.2f %9.2f %9.2f %9.2f"
+				+ " %9.2f %9.2f %10s %9s %5d %6d", benchmark.name,
+				samples.length * 1e9 / elapsed, total / samples.length / 1e3,
+				percentile(samples, 0.5), percentile(samples, 0.9),
+				percentile(samples, 0.99), percentile(samples, 0.999),
+				samples[samples.length - 1] / 1e3,
+				allocated < 0 ? "n/a" : "" + allocated / samples.length,
+				allocated < 0 ? "n/a" : String.format("%.1f", allocated
+						* 1e3 / elapsed), gcs, gcMillis));
+	}
+
+	/**
+	 * The given percentile of the sorted samples in microseconds.
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e3;
+	}
+
+	/**
+	 * The bytes allocated by the current thread so far, or -1 if the JVM
+	 * can't tell.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+}
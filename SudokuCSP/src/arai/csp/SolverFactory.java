@@ -0,0 +1,9 @@
+package arai.csp;
+
+/**
+ * Creates solver instances, e.g. one for every worker thread of a batch.
+ */
+public interface SolverFactory {
+
+	SudokuSolver newSolver();
+}
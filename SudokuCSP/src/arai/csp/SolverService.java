@@ -0,0 +1,339 @@
+package arai.csp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves puzzles sent over a local socket.
+ *
+ * The protocol is line based: a client sends any number of puzzles, one per
+ * line (81 characters, each '1'-'9' or '0' or '.' for an open box, see
+ * SudokuReader), and gets one answer line per puzzle in the same order: the
+ * solution, NO_SOLUTION, BUDGET_EXCEEDED if the solver gave up (see
+ * SudokuSolver.setBudget()), INVALID for a line that is not a puzzle or
+ * ERROR if the solver failed or the service was closed before the puzzle
+ * was solved. Empty lines are skipped. Answers are written as soon as they
+ * are ready and flushed before waiting for the next one, so one connection
+ * can stream a whole file.
+ *
+ * Puzzles from all connections go into one bounded queue. The workers take
+ * them in micro-batches of up to maxBatch puzzles, each with its own solver
+ * from the factory. When the queue is full, reading from the connections
+ * stops until the workers catch up, which pushes back on the clients through
+ * TCP flow control.
+ *
+ * Every connection has a thread that reads its puzzles and one that writes
+ * its answers.
+ */
+public class SolverService implements Closeable {
+
+	public static final String NO_SOLUTION = "none";
+	public static final String INVALID = "invalid";
+	public static final String BUDGET_EXCEEDED = "exceeded";
+	public static final String ERROR = "error";
+
+	public static final int DEFAULT_PORT = 8181;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	public static final int DEFAULT_MAX_BATCH = 64;
+
+	private final ServerSocket serverSocket;
+	private final BlockingQueue<Job> queue;
+	private final int queueCapacity;
+	private final int maxBatch;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final Thread acceptor;
+	private volatile boolean running = true;
+
+	private final AtomicLong puzzleCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+
+	/**
+	 * Start listening on the loopback address and start the workers.
+	 *
+	 * @param port
+	 *            The port to listen on, or 0 for any free port (see
+	 *            getPort()).
+	 * @param factory
+	 *            Creates the solver for each worker.
+	 * @param workerCount
+	 *            The number of worker threads.
+	 * @param queueCapacity
+	 *            The largest number of puzzles waiting for a worker.
+	 * @param maxBatch
+	 *            The largest number of puzzles a worker takes at once.
+	 */
+	public SolverService(int port, final SolverFactory factory,
+			int workerCount, int queueCapacity, int maxBatch)
+			throws IOException {
+		this.serverSocket = new ServerSocket(port, 50,
+				InetAddress.getLoopbackAddress());
+		this.queue = new ArrayBlockingQueue<Job>(queueCapacity);
+		this.queueCapacity = queueCapacity;
+		this.maxBatch = maxBatch;
+
+		for (int i = 0; i < workerCount; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(factory.newSolver());
+				}
+			}, "solver-worker-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "solver-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * The number of puzzles solved so far.
+	 */
+	public long getPuzzleCount() {
+		return puzzleCount.get();
+	}
+
+	/**
+	 * The average number of puzzles a worker took at once.
+	 */
+	public double getAverageBatchSize() {
+		long batches = batchCount.get();
+		return batches == 0 ? 0 : (double) puzzleCount.get() / batches;
+	}
+
+	/**
+	 * Stop accepting connections and stop the workers. Puzzles still in the
+	 * queue, and puzzles that arrive afterwards, are answered with ERROR, so
+	 * every connection gets all its answers.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for (Thread worker : workers)
+			worker.interrupt();
+		failQueued();
+	}
+
+	/**
+	 * Answer all puzzles in the queue with ERROR.
+	 */
+	private void failQueued() {
+		List<Job> left = new ArrayList<Job>();
+		queue.drainTo(left);
+		for (Job job : left)
+			job.complete(ERROR);
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				Thread connection = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "solver-connection");
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException ioe) {
+				if (running)
+					ioe.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * True if the line has a character for every box and each of them is a
+	 * value or an open box ('0' or '.').
+	 */
+	private static boolean isPuzzle(String line) {
+		if (line.length() != CSPSolver.NUMBER_OF_BOXES)
+			return false;
+		for (int index = 0; index < line.length(); index++) {
+			char c = line.charAt(index);
+			if ((c < '0' || c > '9') && c != '.')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Take micro-batches from the queue and solve them until the service is
+	 * closed.
+	 */
+	private void work(SudokuSolver solver) {
+		List<Job> batch = new ArrayList<Job>(maxBatch);
+		try {
+			while (running) {
+				batch.add(queue.take());
+				queue.drainTo(batch, maxBatch - 1);
+				for (Job job : batch) {
+					// A failing solver must not leave the connection waiting
+					String answer;
+					try {
+						answer = answer(solver, job.puzzle);
+					} catch (RuntimeException re) {
+						re.printStackTrace();
+						answer = ERROR;
+					}
+					job.complete(answer);
+				}
+				puzzleCount.addAndGet(batch.size());
+				batchCount.incrementAndGet();
+				batch.clear();
+			}
+		} catch (InterruptedException ie) {
+			// The service is closed
+		}
+	}
+
+	private static String answer(SudokuSolver solver, String puzzle) {
+		if (solver.solve(puzzle))
+			return solver.getSolution();
+		if (solver.getStatus() == SudokuSolver.BUDGET_EXCEEDED)
+			return BUDGET_EXCEEDED;
+		return NO_SOLUTION;
+	}
+
+	/**
+	 * Read the puzzles of one connection and queue them; the answers are
+	 * written by a second thread in the same order.
+	 */
+	private void serve(final Socket socket) {
+		// The jobs of this connection that have not been answered yet, in
+		// order; bounded like the queue, so a slow reader holds us up too
+		final BlockingQueue<Job> pending = new ArrayBlockingQueue<Job>(
+				queueCapacity);
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				answer(socket, pending);
+			}
+		}, "solver-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				Job job = new Job(line);
+				pending.put(job);
+				if (!isPuzzle(line)) {
+					job.complete(INVALID);
+				} else if (!running) {
+					job.complete(ERROR);
+				} else {
+					queue.put(job);
+					// Closed meanwhile: nobody takes the job any more
+					if (!running)
+						failQueued();
+				}
+			}
+		} catch (IOException ioe) {
+			// The client went away; the writer stops at the end marker
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				pending.put(Job.END);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Write the answers of one connection in order until the end marker, then
+	 * close the connection.
+	 */
+	private void answer(Socket socket, BlockingQueue<Job> pending) {
+		try {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+					StandardCharsets.ISO_8859_1);
+			try {
+				while (true) {
+					Job job = pending.take();
+					if (job == Job.END)
+						break;
+					// Send what is ready before waiting for a worker
+					if (!job.isDone())
+						writer.flush();
+					writer.write(job.await());
+					writer.write('\n');
+					if (pending.isEmpty())
+						writer.flush();
+				}
+				writer.flush();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException ioe) {
+			// The client went away
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * One puzzle and, once a worker has solved it, its answer.
+	 */
+	private static class Job {
+
+		// Marks the end of the puzzles of a connection
+		static final Job END = new Job(null);
+
+		final String puzzle;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile String answer;
+
+		Job(String puzzle) {
+			this.puzzle = puzzle;
+		}
+
+		void complete(String answer) {
+			this.answer = answer;
+			done.countDown();
+		}
+
+		boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		String await() throws InterruptedException {
+			done.await();
+			return answer;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package arai.csp;
+
+/**
+ * An interactive session on one puzzle: the user assigns and retracts values
+ * one box at a time, and the session keeps the propagated domains of all
+ * boxes up to date without starting over.
+ *
+ * Propagation is done by a CSPSolver, with its peers and inference rules, on
+ * its own DomainStore. Every entry remembers the position on the trail before
+ * it was made. Assigning a value only propagates that value. Retracting an
+ * entry undoes the trail back to its position, which rolls back exactly the
+ * changes made by that entry and the entries made after it; the later
+ * entries are then made again. Retracting the last entry is a plain undo.
+ *
+ * A session is not thread-safe.
+ */
+public class SolvingSession {
+
+	private final CSPSolver solver;
+	private final DomainStore variables;
+
+	// Searches from the current domains for hints
+	private final CSPSolver searcher;
+
+	// True for the boxes given by the puzzle
+	private final boolean[] given = new boolean[CSPSolver.NUMBER_OF_BOXES];
+
+	// The entries in the order they were made: the box, its value and the
+	// position on the trail before it
+	private final int[] entryCell = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] entryValue = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] entryMark = new int[CSPSolver.NUMBER_OF_BOXES];
+	private int entryCount = 0;
+
+	// The entries from the one being replaced on, made again if the new
+	// value fails (see assign())
+	private final int[] savedCell = new int[CSPSolver.NUMBER_OF_BOXES];
+	private final int[] savedValue = new int[CSPSolver.NUMBER_OF_BOXES];
+
+	/**
+	 * Start a session with the standard inference rules.
+	 *
+	 * @param puzzle
+	 *            The Sudoku puzzle, unassigned variables are denoted with a
+	 *            point ('.').
+	 * @throws IllegalArgumentException
+	 *             If the given values contradict each other.
+	 */
+	public SolvingSession(CharSequence puzzle) {
+		this(puzzle, InferenceRules.standard());
+	}
+
+	/**
+	 * @param puzzle
+	 *            The Sudoku puzzle, unassigned variables are denoted with a
+	 *            point ('.').
+	 * @param rules
+	 *            The inference rules to propagate with.
+	 * @throws IllegalArgumentException
+	 *             If the given values contradict each other.
+	 */
+	public SolvingSession(CharSequence puzzle, InferenceRules rules) {
+		solver = new CSPSolver(rules);
+		solver.setStatsEnabled(false);
+		variables = solver.getVariables();
+		searcher = new CSPSolver(rules.copy());
+		searcher.setStatsEnabled(false);
+
+		for (int index = 0; index < CSPSolver.NUMBER_OF_BOXES; index++) {
+			char c = puzzle.charAt(index);
+			given[index] = c >= '1' && c <= '9';
+		}
+		if (!solver.propagate(puzzle))
+			throw new IllegalArgumentException("The puzzle has no solution");
+	}
+
+	/**
+	 * Enter a value in a box and propagate it. A previous entry in the box is
+	 * replaced. Nothing changes if the box is given or if the value
+	 * contradicts the entries so far.
+	 *
+	 * @param cell
+	 *            The index of the box (0-80, in row order).
+	 * @param value
+	 *            The value (1-9).
+	 * @return True if the value was entered.
+	 */
+	public boolean assign(int cell, int value) {
+		checkCell(cell);
+		if (value < 1 || value > Domains.NUMBER_OF_VALUES)
+			throw new IllegalArgumentException("Invalid value: " + value);
+		if (given[cell])
+			return false;
+
+		int entry = findEntry(cell);
+		int saved = 0;
+		int start = 0;
+		if (entry >= 0) {
+			if (entryValue[entry] == value)
+				return true;
+			saved = entryCount - entry;
+			start = entryMark[entry];
+			System.arraycopy(entryCell, entry, savedCell, 0, saved);
+			System.arraycopy(entryValue, entry, savedValue, 0, saved);
+			retract(cell);
+		}
+
+		int mark = variables.mark();
+		if (!Domains.contains(variables.get(cell), value)
+				|| !propagate(cell, value)) {
+			variables.undo(mark);
+			if (saved > 0) {
+				// Put the replaced entry and the ones after it back
+				variables.undo(start);
+				System.arraycopy(savedCell, 0, entryCell, entry, saved);
+				System.arraycopy(savedValue, 0, entryValue, entry, saved);
+				entryCount = remake(entry, entry + saved, entry);
+			}
+			return false;
+		}
+		entryCell[entryCount] = cell;
+		entryValue[entryCount] = value;
+		entryMark[entryCount] = mark;
+		entryCount++;
+		return true;
+	}
+
+	/**
+	 * Erase the entry in a box and roll back what it propagated.
+	 *
+	 * @param cell
+	 *            The index of the box (0-80, in row order).
+	 * @return False if there was no entry in the box.
+	 */
+	public boolean retract(int cell) {
+		checkCell(cell);
+		int entry = findEntry(cell);
+		if (entry < 0)
+			return false;
+
+		variables.undo(entryMark[entry]);
+
+		// Make the later entries again; with fewer entries they can only
+		// propagate less, but an entry that fails after all is dropped
+		entryCount = remake(entry + 1, entryCount, entry);
+		return true;
+	}
+
+	/**
+	 * Make entries again after the trail was undone to before them; an entry
+	 * that fails is dropped.
+	 *
+	 * @param from
+	 *            The first entry to make.
+	 * @param end
+	 *            The entry after the last one to make.
+	 * @param kept
+	 *            Where the first entry that is kept goes (at most from).
+	 * @return The number of entries.
+	 */
+	private int remake(int from, int end, int kept) {
+		for (int i = from; i < end; i++) {
+			int mark = variables.mark();
+			if (!propagate(entryCell[i], entryValue[i])) {
+				variables.undo(mark);
+				continue;
+			}
+			entryCell[kept] = entryCell[i];
+			entryValue[kept] = entryValue[i];
+			entryMark[kept] = mark;
+			kept++;
+		}
+		return kept;
+	}
+
+	/**
+	 * The values still possible in a box as a mask (see Domains).
+	 *
+	 * @param cell
+	 *            The index of the box (0-80, in row order).
+	 */
+	public int candidates(int cell) {
+		checkCell(cell);
+		return variables.get(cell);
+	}
+
+	/**
+	 * The value of a box if it is given, entered or follows by propagation,
+	 * or 0.
+	 */
+	public int value(int cell) {
+		checkCell(cell);
+		int domain = variables.get(cell);
+		return Domains.isSingle(domain) ? Domains.value(domain) : 0;
+	}
+
+	/**
+	 * The value entered by the user in a box, or 0.
+	 */
+	public int entry(int cell) {
+		checkCell(cell);
+		int entry = findEntry(cell);
+		return entry < 0 ? 0 : entryValue[entry];
+	}
+
+	public boolean isGiven(int cell) {
+		checkCell(cell);
+		return given[cell];
+	}
+
+	/**
+	 * True if the value of every box is known.
+	 */
+	public boolean isSolved() {
+		return variables.isComplete();
+	}
+
+	/**
+	 * Suggest a value for a box that is neither given nor entered yet.
+	 *
+	 * A solution is searched from the current domains first, so that no hint
+	 * is given for entries that lead nowhere. A box whose value already
+	 * follows from propagation comes first; if there is none, the value the
+	 * solution has for the open box with the fewest candidates is suggested.
+	 *
+	 * @return The hint, or null if every box has a value or if the entries
+	 *         so far lead to no solution.
+	 */
+	public Hint nextHint() {
+		if (!searcher.solve(variables.toArray()))
+			return null;
+
+		for (int cell = 0; cell < CSPSolver.NUMBER_OF_BOXES; cell++) {
+			if (given[cell] || findEntry(cell) >= 0)
+				continue;
+			int domain = variables.get(cell);
+			if (Domains.isSingle(domain))
+				return new Hint(cell, Domains.value(domain), true);
+		}
+
+		if (isSolved())
+			return null;
+
+		int best = -1;
+		int bestSize = Integer.MAX_VALUE;
+		for (int cell = 0; cell < CSPSolver.NUMBER_OF_BOXES; cell++) {
+			int size = Domains.size(variables.get(cell));
+			if (size > 1 && size < bestSize) {
+				best = cell;
+				bestSize = size;
+			}
+		}
+		int value = searcher.getSolution().charAt(best) - '0';
+		return new Hint(best, value, false);
+	}
+
+	/**
+	 * The current board as 81 characters: the value of every box that has
+	 * one and a point ('.') for the others.
+	 */
+	public String getBoard() {
+		char[] board = new char[CSPSolver.NUMBER_OF_BOXES];
+		for (int cell = 0; cell < CSPSolver.NUMBER_OF_BOXES; cell++) {
+			int value = value(cell);
+			board[cell] = value == 0 ? '.' : (char) ('0' + value);
+		}
+		return new String(board);
+	}
+
+	/**
+	 * Assign the value and propagate it.
+	 *
+	 * @return False if propagation led to an empty domain.
+	 */
+	private boolean propagate(int cell, int value) {
+		variables.set(cell, Domains.bit(value));
+		return solver.constraintProp();
+	}
+
+	private int findEntry(int cell) {
+		for (int i = 0; i < entryCount; i++)
+			if (entryCell[i] == cell)
+				return i;
+		return -1;
+	}
+
+	private static void checkCell(int cell) {
+		if (cell < 0 || cell >= CSPSolver.NUMBER_OF_BOXES)
+			throw new IllegalArgumentException("Invalid cell: " + cell);
+	}
+}
@@ -0,0 +1,95 @@
+package arai.csp;
+
+/**
+ * Collects the search statistics of many puzzles (e.g. a batch) into
+ * histograms, one per metric of SearchStats.
+ * 
+ * Bucket 0 counts puzzles with a value of 0, bucket k counts values from
+ * 2^(k-1) up to 2^k - 1. For each metric the largest value is kept together
+ * with the number of the puzzle it came from, to find the puzzles that cause
+ * slow runs. Recording is synchronized, so worker threads can share one
+ * histogram.
+ */
+public class StatsHistogram {
+
+	public static final int NUMBER_OF_BUCKETS = 64;
+
+	private final long[][] buckets = new long[SearchStats.NUMBER_OF_METRICS][NUMBER_OF_BUCKETS];
+	private final long[] totals = new long[SearchStats.NUMBER_OF_METRICS];
+	private final long[] maxima = new long[SearchStats.NUMBER_OF_METRICS];
+	private final long[] maxPuzzles = new long[SearchStats.NUMBER_OF_METRICS];
+	private long puzzleCount = 0;
+
+	/**
+	 * Add the statistics of one puzzle.
+	 * 
+	 * @param puzzle
+	 *            The number of the puzzle, e.g. its position in the batch or
+	 *            its byte offset in the file.
+	 */
+	public synchronized void record(long puzzle, SearchStats stats) {
+		puzzleCount++;
+		for (int metric = 0; metric < SearchStats.NUMBER_OF_METRICS; metric++) {
+			long value = stats.get(metric);
+			buckets[metric][bucket(value)]++;
+			totals[metric] += value;
+			if (value > maxima[metric] || puzzleCount == 1) {
+				maxima[metric] = value;
+				maxPuzzles[metric] = puzzle;
+			}
+		}
+	}
+
+	/**
+	 * The bucket a value is counted in: 0 for 0, otherwise the number of bits
+	 * needed for the value.
+	 */
+	public static int bucket(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	public synchronized long getPuzzleCount() {
+		return puzzleCount;
+	}
+
+	public synchronized long getCount(int metric, int bucket) {
+		return buckets[metric][bucket];
+	}
+
+	public synchronized double getMean(int metric) {
+		return puzzleCount == 0 ? 0 : (double) totals[metric] / puzzleCount;
+	}
+
+	public synchronized long getMax(int metric) {
+		return maxima[metric];
+	}
+
+	/**
+	 * The number of the puzzle with the largest value of the metric.
+	 */
+	public synchronized long getMaxPuzzle(int metric) {
+		return maxPuzzles[metric];
+	}
+
+	/**
+	 * For each metric the mean, the maximum (and its puzzle) and the
+	 * non-empty buckets.
+	 */
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		for (int metric = 0; metric < SearchStats.NUMBER_OF_METRICS; metric++) {
+			sb.append(SearchStats.METRIC_NAMES[metric]);
+			sb.append(String.format(": mean %.1f, max %d (puzzle %d)\n",
+					getMean(metric), maxima[metric], maxPuzzles[metric]));
+			for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+				if (buckets[metric][bucket] == 0)
+					continue;
+				long low = bucket == 0 ? 0 : 1L << (bucket - 1);
+				long high = bucket == 0 ? 0 : (1L << bucket) - 1;
+				sb.append(String.format("  %8d - %-8d %d\n", low, high,
+						buckets[metric][bucket]));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,76 @@
+package arai.csp;
+
+/**
+ * A solver for 9x9 Sudoku puzzles.
+ *
+ * Puzzles are given as 81 characters in row order, unassigned variables are
+ * denoted with a point ('.'). Any CharSequence will do, so puzzles can be
+ * solved straight from a reused buffer (see PuzzleBuffer) without creating a
+ * String for each of them.
+ */
+public interface SudokuSolver {
+
+	// The outcome of the last solve (see getStatus())
+	int SOLVED = 0;
+	int UNSOLVABLE = 1;
+	int BUDGET_EXCEEDED = 2;
+
+	String[] STATUS_NAMES = { "solved", "unsolvable", "budget exceeded" };
+
+	/**
+	 * Find a solution for the given puzzle.
+	 * 
+	 * @param puzzle
+	 *            The Sudoku puzzle to be solved.
+	 * @return True if a solution was found.
+	 */
+	boolean solve(CharSequence puzzle);
+
+	/**
+	 * Count the solutions of the given puzzle, stopping as soon as the limit
+	 * is reached. A limit of 2 checks whether the puzzle is valid: it is if
+	 * exactly 1 solution is found. Afterwards getSolution() returns the first
+	 * solution that was found, if any.
+	 * 
+	 * @param puzzle
+	 *            The Sudoku puzzle to check.
+	 * @param limit
+	 *            The number of solutions after which to stop (at least 1).
+	 * @return The number of solutions, at most the limit.
+	 */
+	int countSolutions(CharSequence puzzle, int limit);
+
+	/**
+	 * The solution to the last puzzle as 81 digits in row order, or null if
+	 * it was not solved.
+	 */
+	String getSolution();
+
+	/**
+	 * The outcome of the last solve or count: SOLVED if a solution was found,
+	 * UNSOLVABLE if the puzzle has none, or BUDGET_EXCEEDED if the search ran
+	 * out of budget or was cancelled before it could tell (see setBudget()).
+	 */
+	int getStatus();
+
+	/**
+	 * The values known when the last search ran out of budget, as 81
+	 * characters in row order with a point ('.') for every open box, or null
+	 * if it did not run out of budget.
+	 */
+	String getPartialSolution();
+
+	/**
+	 * Limit the work per puzzle. The budget is used by this solver only.
+	 * 
+	 * @param budget
+	 *            The budget, or null for no limit (the default).
+	 */
+	void setBudget(SearchBudget budget);
+
+	/**
+	 * The work done for the last puzzle, or null if the solver does not count
+	 * it. The object is reused for the next puzzle.
+	 */
+	SearchStats getStats();
+}
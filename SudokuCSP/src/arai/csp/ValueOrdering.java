@@ -0,0 +1,28 @@
+package arai.csp;
+
+/**
+ * Chooses the order in which the search tries the values of a variable (see
+ * CSPSolver.dfSearch()).
+ */
+public interface ValueOrdering {
+
+	/**
+	 * The name of the ordering, e.g. for reports.
+	 */
+	String getName();
+
+	/**
+	 * Choose the value to try next.
+	 * 
+	 * @param variables
+	 *            The current domains, after propagation.
+	 * @param peersAll
+	 *            The peers of each variable (see CSPSolver).
+	 * @param index
+	 *            The variable being assigned.
+	 * @param values
+	 *            The values not tried yet (a mask, not empty).
+	 * @return The value (1-9).
+	 */
+	int next(DomainStore variables, int[][] peersAll, int index, int values);
+}
@@ -0,0 +1,42 @@
+package arai.csp;
+
+/**
+ * Chooses the variable the search assigns next (see CSPSolver.dfSearch()).
+ *
+ * An ordering may learn from the search (see conflict()), so every solver
+ * needs its own; use copy() to get one for another solver.
+ */
+public interface VariableOrdering {
+
+	/**
+	 * The name of the ordering, e.g. for reports.
+	 */
+	String getName();
+
+	/**
+	 * Choose an unassigned variable (domain size above 1).
+	 * 
+	 * @param variables
+	 *            The current domains, after propagation.
+	 * @param peersAll
+	 *            The peers of each variable (see CSPSolver).
+	 * @return The index of the variable, or -1 if all are assigned.
+	 */
+	int select(DomainStore variables, int[][] peersAll);
+
+	/**
+	 * Called when propagating the value of a variable left one of its peers
+	 * with an empty domain.
+	 */
+	void conflict(int index, int peer);
+
+	/**
+	 * Forget what was learned, before a new puzzle.
+	 */
+	void reset();
+
+	/**
+	 * A new ordering of the same kind, for another solver.
+	 */
+	VariableOrdering copy();
+}